@@ -0,0 +1,37 @@
+package org.example.bench;
+
+import org.example.FileArchiver;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Стоимость автоматического выбора алгоритма {@link FileArchiver#autoSelectMethod(byte[])}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class AutoSelectBenchmark {
+    @Param({"65536", "1048576", "16777216"})
+    public int size;
+
+    @Param({"RUNS", "PHRASES", "RANDOM", "TEXT"})
+    public BenchmarkData.Shape shape;
+
+    private byte[] data;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        data = BenchmarkData.generate(shape, size);
+    }
+
+    @Benchmark
+    public FileArchiver.Method autoSelect(ByteCounter counter) {
+        counter.bytes += data.length;
+        return FileArchiver.autoSelectMethod(data);
+    }
+}
@@ -0,0 +1,82 @@
+package org.example.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Генератор входных данных для бенчмарков.
+ * Для формы TEXT можно подставить настоящий текст: -Dbench.textFile=путь,
+ * файл повторяется до нужного размера.
+ */
+public final class BenchmarkData {
+    /** Форма данных: под каждую форму «заточен» свой алгоритм. */
+    public enum Shape { RUNS, PHRASES, RANDOM, TEXT }
+
+    private static final String[] WORDS = {
+            "the", "of", "and", "to", "in", "is", "that", "archive", "block", "file", "data",
+            "compression", "method", "stream", "buffer", "error", "warning", "request", "time",
+            "node", "value", "with", "for", "on", "was", "as", "by", "at", "from", "this"
+    };
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Генерирует детерминированные данные заданной формы.
+     * @param shape форма данных
+     * @param size размер в байтах
+     * @return данные
+     */
+    public static byte[] generate(Shape shape, int size) throws IOException {
+        Random random = new Random(42);
+        byte[] data = new byte[size];
+        switch (shape) {
+            case RUNS -> {
+                // Длинные серии одинаковых байт, как в выравнивании нулями и разреженных файлах
+                int i = 0;
+                while (i < size) {
+                    int len = Math.min(size - i, 16 + random.nextInt(240));
+                    Arrays.fill(data, i, i + len, (byte) random.nextInt(4));
+                    i += len;
+                }
+            }
+            case PHRASES -> {
+                // Повторяющиеся строки журнала с меняющимся номером
+                int i = 0;
+                int line = 0;
+                while (i < size) {
+                    byte[] text = ("INFO request " + (line++ % 1000) + " served by node-" + (line % 7) + "\n").getBytes();
+                    int len = Math.min(size - i, text.length);
+                    System.arraycopy(text, 0, data, i, len);
+                    i += len;
+                }
+            }
+            case RANDOM -> random.nextBytes(data);
+            case TEXT -> fillText(data, random);
+        }
+        return data;
+    }
+
+    private static void fillText(byte[] data, Random random) throws IOException {
+        String textFile = System.getProperty("bench.textFile");
+        if (textFile != null) {
+            byte[] text = Files.readAllBytes(Path.of(textFile));
+            for (int i = 0; i < data.length; i += text.length) {
+                System.arraycopy(text, 0, data, i, Math.min(text.length, data.length - i));
+            }
+            return;
+        }
+        // Слова с частотами, близкими к закону Ципфа
+        int i = 0;
+        while (i < data.length) {
+            int rank = (int) Math.min(WORDS.length - 1, Math.abs(random.nextGaussian()) * 8);
+            byte[] word = (WORDS[rank] + (random.nextInt(12) == 0 ? ".\n" : " ")).getBytes();
+            int len = Math.min(data.length - i, word.length);
+            System.arraycopy(word, 0, data, i, len);
+            i += len;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.example.bench;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Счетчик обработанных байт исходных данных. JMH выводит его как скорость (bytes/s),
+ * что вместе с ops/s дает пропускную способность в МБ/с.
+ */
+@State(Scope.Thread)
+@AuxCounters(AuxCounters.Type.OPERATIONS)
+public class ByteCounter {
+    public long bytes;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+        bytes = 0;
+    }
+}
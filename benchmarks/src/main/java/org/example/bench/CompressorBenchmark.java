@@ -0,0 +1,62 @@
+package org.example.bench;
+
+import org.example.FileArchiver.Method;
+import org.example.compression.Compressor;
+import org.example.compression.HuffmanCompressor;
+import org.example.compression.LZWCompressor;
+import org.example.compression.RLECompressor;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Скорость сжатия и восстановления каждой реализации {@link Compressor}.
+ * Экземпляр алгоритма — контекст с рабочими буферами, который нельзя делить между потоками,
+ * поэтому состояние свое у каждого потока бенчмарка (запуск с {@code -t} больше 1 тоже корректен).
+ * Запуск с профилировщиком аллокаций:
+ *   java -jar benchmarks/target/benchmarks.jar CompressorBenchmark -prof gc
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g"})
+public class CompressorBenchmark {
+    @Param({"RLE", "LZW", "HUFFMAN"})
+    public Method method;
+
+    @Param({"65536", "1048576", "16777216"})
+    public int size;
+
+    @Param({"RUNS", "PHRASES", "RANDOM", "TEXT"})
+    public BenchmarkData.Shape shape;
+
+    private Compressor compressor;
+    private byte[] data;
+    private byte[] compressed;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        compressor = switch (method) {
+            case RLE -> new RLECompressor();
+            case LZW -> new LZWCompressor();
+            case HUFFMAN -> new HuffmanCompressor();
+        };
+        data = BenchmarkData.generate(shape, size);
+        compressed = compressor.compress(data);
+    }
+
+    @Benchmark
+    public byte[] compress(ByteCounter counter) {
+        counter.bytes += data.length;
+        return compressor.compress(data);
+    }
+
+    @Benchmark
+    public byte[] decompress(ByteCounter counter) {
+        counter.bytes += data.length;
+        return compressor.decompress(compressed);
+    }
+}
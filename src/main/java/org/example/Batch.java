@@ -0,0 +1,211 @@
+package org.example;
+
+import org.example.FileArchiver.Method;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Stream;
+
+/**
+ * Пакетное сжатие многих файлов в одной JVM. Каждый файл обрабатывается в своем виртуальном
+ * потоке (чтение, сжатие, запись), а само кодирование отдается в ограниченный пул рабочих потоков
+ * по числу ядер. Ожидание ввода-вывода не занимает ядра, а ядра не перегружаются сверх пула.
+ * Память ограничена бюджетом в байтах ({@link #MEMORY_BUDGET}): виртуальный поток до чтения берет
+ * из бюджета столько, сколько файлу нужно в куче, и возвращает после записи, поэтому пиковый объем
+ * кучи не зависит ни от числа файлов, ни от числа ядер.
+ * Каждый файл сжимается в обычный блочный архив. Файл больше {@link #IN_MEMORY_LIMIT} сжимается
+ * потоково: виртуальный поток читает блоки и пишет архив, а блоки кодируются в том же пуле по числу ядер.
+ */
+final class Batch {
+    /** Файлы больше этого размера сжимаются потоково с диска, а не целиком в памяти. */
+    static final long IN_MEMORY_LIMIT = 64L << 20;
+    /** Сколько байт кучи могут одновременно занимать файлы пакета. */
+    static final long MEMORY_BUDGET = Math.min(Runtime.getRuntime().maxMemory() / 4, 1L << 30);
+    // Бюджет считается разрешениями семафора по 1 КБ, чтобы поместиться в int
+    private static final int PERMIT_SHIFT = 10;
+    static final String ARCHIVE_SUFFIX = ".arc";
+
+    /**
+     * Файл пакета и путь его архива.
+     */
+    record Item(Path input, Path output) {
+    }
+
+    private Batch() {
+    }
+
+    /**
+     * Разворачивает входы пакета в список файлов. Вход — это каталог (все файлы рекурсивно),
+     * шаблон glob (например, {@code logs/*.txt} или {@code data/**.csv}), файл-манифест
+     * с путями по одному в строке (имя с префиксом '@') или просто файл.
+     * Архив каждого файла кладется в outputDir по пути файла относительно каталога входа
+     * (для шаблона — относительно его части без подстановочных символов) с суффиксом .arc.
+     * @throws IOException в том числе если два разных файла попадают в один и тот же архив
+     */
+    static List<Item> collect(List<String> inputs, Path outputDir) throws IOException {
+        Map<Path, Item> items = new LinkedHashMap<>();
+        for (String input : inputs) {
+            if (input.startsWith("@")) {
+                for (String line : Files.readAllLines(Path.of(input.substring(1)))) {
+                    if (!line.isBlank()) addFile(items, Path.of(line.strip()), null, outputDir);
+                }
+            } else if (isGlob(input)) {
+                Path base = globBase(input);
+                PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + input);
+                try (Stream<Path> walk = Files.walk(base)) {
+                    for (Path file : walk.filter(Files::isRegularFile).filter(matcher::matches).sorted().toList()) {
+                        addFile(items, file, base, outputDir);
+                    }
+                }
+            } else if (Files.isDirectory(Path.of(input))) {
+                Path base = Path.of(input);
+                try (Stream<Path> walk = Files.walk(base)) {
+                    for (Path file : walk.filter(Files::isRegularFile).sorted().toList()) addFile(items, file, base, outputDir);
+                }
+            } else {
+                addFile(items, Path.of(input), null, outputDir);
+            }
+        }
+        return new ArrayList<>(items.values());
+    }
+
+    private static boolean isGlob(String input) {
+        for (char c : new char[]{'*', '?', '[', '{'}) {
+            if (input.indexOf(c) >= 0) return true;
+        }
+        return false;
+    }
+
+    // Самый длинный префикс шаблона из целых элементов пути без подстановочных символов
+    private static Path globBase(String glob) {
+        Path base = null;
+        for (String part : glob.split("[/\\\\]")) {
+            if (isGlob(part)) break;
+            base = base == null ? Path.of(part.isEmpty() ? "/" : part) : base.resolve(part);
+        }
+        return base == null ? Path.of("") : base;
+    }
+
+    private static void addFile(Map<Path, Item> items, Path file, Path base, Path outputDir) throws IOException {
+        Path relative = base != null ? base.relativize(file) : file.normalize();
+        // Абсолютный путь сохраняется целиком без корня (/a/x.log -> a/x.log), а у пути вне текущего
+        // каталога отбрасываются ведущие "..": так у разных файлов остаются различающие их каталоги
+        if (relative.isAbsolute()) relative = relative.getRoot().relativize(relative);
+        while (relative.startsWith("..") && relative.getNameCount() > 1) relative = relative.subpath(1, relative.getNameCount());
+        Path output = Container.resolve(outputDir, relative + ARCHIVE_SUFFIX);
+        Item previous = items.putIfAbsent(output, new Item(file, output));
+        // Один и тот же файл из нескольких входов сжимается один раз, а разные файлы не должны
+        // молча перезаписывать архивы друг друга
+        if (previous != null && !Files.isSameFile(previous.input(), file)) {
+            throw new IOException("Inputs " + previous.input() + " and " + file + " map to the same archive " + output);
+        }
+    }
+
+    /**
+     * Сжимает файлы пакета.
+     * @param items файлы и пути архивов
+     * @param method алгоритм сжатия; null — выбирать алгоритм для каждого блока по его содержимому
+     * @param blockSize размер блока архива
+     * @return количество сжатых файлов
+     * @throws IOException первая ошибка, если какие-то файлы сжать не удалось (остальные файлы
+     *                     пакета при этом обрабатываются до конца; прочие ошибки — в suppressed)
+     */
+    static int run(List<Item> items, Method method, int blockSize) throws IOException {
+        BlockArchive.checkBlockSize(blockSize);
+        int cores = Runtime.getRuntime().availableProcessors();
+        ExecutorService cpu = Executors.newFixedThreadPool(cores);
+        // Справедливый семафор: файл, которому нужна большая часть бюджета, не обгоняют бесконечно мелкие
+        Semaphore memory = new Semaphore(permits(MEMORY_BUDGET), true);
+        ExecutorService io = Executors.newVirtualThreadPerTaskExecutor();
+        IOException failure = null;
+        int done = 0;
+        try {
+            List<Future<?>> tasks = new ArrayList<>(items.size());
+            for (Item item : items) {
+                tasks.add(io.submit(() -> {
+                    compress(item, method, blockSize, cpu, cores, memory);
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                try {
+                    task.get();
+                    done++;
+                } catch (ExecutionException e) {
+                    Throwable cause = unwrap(e);
+                    if (failure == null) {
+                        failure = cause instanceof IOException ioe ? ioe : new IOException(cause);
+                    } else {
+                        failure.addSuppressed(cause);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Batch interrupted", e);
+        } finally {
+            io.shutdownNow();
+            cpu.shutdownNow();
+        }
+        if (failure != null) throw failure;
+        return done;
+    }
+
+    /**
+     * Исходная ошибка задачи. Ошибка сжатия в пуле cpu приходит обернутой дважды: в ExecutionException
+     * задачи пула и в ExecutionException виртуального потока, поэтому обертки снимаются в цикле.
+     */
+    static Throwable unwrap(Throwable error) {
+        while ((error instanceof ExecutionException || error instanceof UncheckedIOException) && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    /**
+     * Разрешения семафора памяти для заданного числа байт. Больше всего бюджета не просит никто,
+     * иначе такой файл ждал бы вечно; он просто обрабатывается без соседей.
+     */
+    static int permits(long bytes) {
+        long capped = Math.min(bytes, MEMORY_BUDGET);
+        return (int) Math.max(1, (capped + (1 << PERMIT_SHIFT) - 1) >>> PERMIT_SHIFT);
+    }
+
+    // Выполняется в виртуальном потоке: блокирующее чтение и запись, кодирование — только в пуле cpu
+    private static void compress(Item item, Method method, int blockSize, ExecutorService cpu, int cores,
+                                 Semaphore memory) throws Exception {
+        Path parent = item.output().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        long size = Files.size(item.input());
+        boolean streamed = size > IN_MEMORY_LIMIT;
+        // В памяти — исходные данные и архив; потоково — сжатые блоки в работе (граница сжатия до 2 блоков)
+        int permits = permits(streamed ? 2L * cores * blockSize : 2 * size);
+        memory.acquire(permits);
+        try {
+            if (streamed) {
+                // Большой файл делится на блоки, которые кодируют рабочие потоки пула cpu с их
+                // контекстами алгоритмов; виртуальный поток только читает, ждет и пишет
+                BlockArchive.compress(item.input(), item.output(), method, blockSize, cpu, cores);
+                return;
+            }
+            byte[] data = Files.readAllBytes(item.input());
+            byte[] archive = cpu.submit(() -> BlockArchive.compress(data, method, blockSize)).get();
+            Files.write(item.output(), archive);
+        } finally {
+            memory.release(permits);
+        }
+    }
+}
@@ -0,0 +1,379 @@
+package org.example;
+
+import org.example.FileArchiver.Method;
+import org.example.compression.Compressor;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+
+/**
+ * Блочный формат архива. Вход режется на независимые блоки, которые сжимаются
+ * параллельно в {@link ForkJoinPool} и записываются в исходном порядке.
+ * В конце архива лежит индекс блоков, по которому блоки так же параллельно
+ * распаковываются и пишутся каждый по своему смещению в выходном файле.
+ * Каждый блок хранит свой метод в индексе, поэтому в одном архиве можно смешивать алгоритмы:
+ * при поблочном выборе метод каждого блока определяется по его содержимому.
+ * Контрольная сумма блока считается и проверяется в тех же задачах пула, что сжимают
+ * и распаковывают блок, поэтому проверка идет параллельно и почти не добавляет времени.
+ * Формат:
+ *   [0x10][метод: 1 байт, 0xFF — у блоков разные методы][размер блока: 4 байта]
+ *   сжатые блоки подряд
+ *   индекс: для каждого блока [смещение: 8 байт][длина сжатого блока: 4 байта][длина исходного блока: 4 байта]
+ *           [метод: 1 байт][CRC32C исходного блока: 4 байта]
+ *   [смещение индекса: 8 байт][количество блоков: 4 байта]
+ */
+final class BlockArchive {
+    /** Первый байт блочного архива; не совпадает ни с одной байт-меткой метода. */
+    static final byte MAGIC = 0x10;
+    /** Метка метода в заголовке архива, где метод выбирается для каждого блока отдельно. */
+    static final byte PER_BLOCK = (byte) 0xFF;
+    static final int MIN_BLOCK_SIZE = 1 << 16;
+    static final int MAX_BLOCK_SIZE = 1 << 26;
+    private static final int HEADER_SIZE = 6;
+    private static final int INDEX_ENTRY_SIZE = 21;
+    private static final int FOOTER_SIZE = 12;
+    // Рабочая копия отображенного блока в куче хранится в потоке пула, если блок не больше этого
+    private static final int MAX_RETAINED_BLOCK = 4 << 20;
+    private static final ThreadLocal<byte[]> BLOCK_COPY = ThreadLocal.withInitial(() -> new byte[0]);
+
+    /**
+     * Запись индекса: где лежит сжатый блок, каким методом он сжат,
+     * сколько байт он дает после распаковки и их CRC32C.
+     */
+    record BlockInfo(long offset, int packedLength, int originalLength, Method method, int checksum) {
+    }
+
+    /**
+     * Сжатый блок: первые length байт массива data. После записи массив возвращается в пул
+     * буферов вызова и достается следующему блоку.
+     */
+    private record PackedBlock(byte[] data, int length, int originalLength, Method method, int checksum) {
+    }
+
+    private BlockArchive() {
+    }
+
+    /**
+     * Сжимает файл поблочно. Одновременно в работе не больше двух блоков на поток пула,
+     * поэтому память ограничена независимо от размера файла. Буферы сжатых блоков
+     * переиспользуются: записанный блок отдает свой буфер следующему.
+     * @param input исходный файл
+     * @param output архив
+     * @param method алгоритм сжатия; null — выбирать алгоритм для каждого блока по его содержимому
+     * @param blockSize размер блока исходных данных
+     */
+    static void compress(Path input, Path output, Method method, int blockSize) throws IOException {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        compress(input, output, method, blockSize, pool, 2 * pool.getParallelism());
+    }
+
+    /**
+     * Сжимает файл поблочно в заданном пуле: блоки кодируются только рабочими потоками пула,
+     * а вызывающий поток читает, ждет и пишет.
+     * @param pool пул, в котором сжимаются блоки
+     * @param maxInFlight сколько блоков может быть в работе одновременно
+     */
+    static void compress(Path input, Path output, Method method, int blockSize, ExecutorService pool, int maxInFlight)
+            throws IOException {
+        checkBlockSize(blockSize);
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+            try (DataOutputStream out = new DataOutputStream(MappedFiles.newOutputStream(output))) {
+                writeHeader(out, method, blockSize);
+                long size = in.size();
+                List<BlockInfo> index = new ArrayList<>();
+                Deque<Future<PackedBlock>> inFlight = new ArrayDeque<>();
+                Queue<byte[]> free = new ConcurrentLinkedQueue<>();
+                try {
+                    for (long pos = 0; pos < size; pos += blockSize) {
+                        ByteBuffer block = MappedFiles.read(in, pos, (int) Math.min(blockSize, size - pos));
+                        if (inFlight.size() == maxInFlight) writeBlock(out, await(inFlight.poll()), index, free);
+                        inFlight.add(pool.submit(() -> compressBlock(method, block, free)));
+                    }
+                    while (!inFlight.isEmpty()) writeBlock(out, await(inFlight.poll()), index, free);
+                } finally {
+                    for (Future<PackedBlock> task : inFlight) task.cancel(false);
+                }
+                writeIndex(out, index);
+            } catch (IOException | RuntimeException e) {
+                // Оборванный архив без индекса не должен остаться на месте результата
+                Files.deleteIfExists(output);
+                throw e;
+            }
+        }
+    }
+
+    // Результат задачи пула; ошибка сжатия пробрасывается без обертки ExecutionException
+    private static PackedBlock await(Future<PackedBlock> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Block compression interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException u) throw u.getCause();
+            if (e.getCause() instanceof RuntimeException r) throw r;
+            if (e.getCause() instanceof Error err) throw err;
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Сжимает данные из памяти в блочный архив в памяти, последовательно в текущем потоке.
+     * Нужен, когда параллелизм обеспечивает вызывающий (например, пакетное сжатие многих файлов).
+     * @param data исходные данные
+     * @param method алгоритм сжатия; null — выбирать алгоритм для каждого блока по его содержимому
+     * @param blockSize размер блока исходных данных
+     * @return содержимое архива
+     */
+    static byte[] compress(byte[] data, Method method, int blockSize) throws IOException {
+        checkBlockSize(blockSize);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2 + HEADER_SIZE + FOOTER_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        writeHeader(out, method, blockSize);
+        List<BlockInfo> index = new ArrayList<>();
+        Queue<byte[]> free = new ArrayDeque<>(1);
+        for (int pos = 0; pos < data.length; pos += blockSize) {
+            int length = Math.min(blockSize, data.length - pos);
+            writeBlock(out, compressBlock(method, ByteBuffer.wrap(data, pos, length), free), index, free);
+        }
+        writeIndex(out, index);
+        return bytes.toByteArray();
+    }
+
+    private static void writeHeader(DataOutputStream out, Method method, int blockSize) throws IOException {
+        out.writeByte(MAGIC);
+        out.writeByte(method == null ? PER_BLOCK : FileArchiver.methodToByte(method));
+        out.writeInt(blockSize);
+    }
+
+    private static void writeIndex(DataOutputStream out, List<BlockInfo> index) throws IOException {
+        long indexOffset = endOfBlocks(index);
+        for (BlockInfo info : index) {
+            out.writeLong(info.offset());
+            out.writeInt(info.packedLength());
+            out.writeInt(info.originalLength());
+            out.writeByte(FileArchiver.methodToByte(info.method()));
+            out.writeInt(info.checksum());
+        }
+        out.writeLong(indexOffset);
+        out.writeInt(index.size());
+    }
+
+    /**
+     * Сжимает блок в буфер из пула free (или в новый, если свободного подходящего нет).
+     * Отображенный блок копируется в кучу в рабочий массив текущего потока.
+     */
+    private static PackedBlock compressBlock(Method method, ByteBuffer block, Queue<byte[]> free) {
+        int originalLength = block.remaining();
+        byte[] src;
+        int srcOff;
+        if (block.hasArray()) {
+            src = block.array();
+            srcOff = block.arrayOffset() + block.position();
+        } else {
+            src = BLOCK_COPY.get();
+            if (src.length < originalLength) {
+                src = new byte[originalLength];
+                if (originalLength <= MAX_RETAINED_BLOCK) BLOCK_COPY.set(src);
+            }
+            block.get(block.position(), src, 0, originalLength);
+            srcOff = 0;
+        }
+        Method blockMethod = method != null ? method : SampleAnalyzer.select(src, srcOff, originalLength);
+        Compressor compressor = FileArchiver.getCompressor(blockMethod);
+        int bound = compressor.maxCompressedLength(originalLength);
+        byte[] packed = free.poll();
+        if (packed == null || packed.length < bound) packed = new byte[bound];
+        int length = compressor.compress(src, srcOff, originalLength, packed, 0);
+        return new PackedBlock(packed, length, originalLength, blockMethod, checksum(src, srcOff, originalLength));
+    }
+
+    private static void writeBlock(OutputStream out, PackedBlock block, List<BlockInfo> index, Queue<byte[]> free)
+            throws IOException {
+        index.add(new BlockInfo(endOfBlocks(index), block.length(), block.originalLength(), block.method(), block.checksum()));
+        out.write(block.data(), 0, block.length());
+        free.offer(block.data());
+    }
+
+    // Смещение сразу за последним записанным блоком
+    private static long endOfBlocks(List<BlockInfo> index) {
+        if (index.isEmpty()) return HEADER_SIZE;
+        BlockInfo last = index.get(index.size() - 1);
+        return last.offset() + last.packedLength();
+    }
+
+    /**
+     * Восстанавливает блочный архив. Блоки распаковываются параллельно алгоритмом из своей
+     * записи индекса, сверяются с контрольной суммой и пишутся каждый позиционно
+     * по своему смещению в выходном файле.
+     * @param archive путь к архиву
+     * @param output путь к восстановленному файлу
+     * @throws IOException в том числе если архив поврежден
+     */
+    static void decompress(Path archive, Path output) throws IOException {
+        try (FileChannel in = FileChannel.open(archive, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            BlockInfo[] index = readHeaderAndIndex(in, archive);
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(index.length);
+            long outputOffset = 0;
+            for (BlockInfo info : index) {
+                long position = outputOffset;
+                tasks.add(ForkJoinPool.commonPool().submit(() -> {
+                    try {
+                        MappedFiles.writeFully(out, ByteBuffer.wrap(restoreBlock(in, info)), position);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+                outputOffset += info.originalLength();
+            }
+            joinAll(tasks);
+        }
+    }
+
+    /**
+     * Проверяет блочный архив без записи результата: все блоки распаковываются параллельно
+     * и сверяются с длиной и CRC32C из индекса.
+     * @param archive путь к архиву
+     * @return длина исходных данных
+     * @throws IOException если архив поврежден
+     */
+    static long verify(Path archive) throws IOException {
+        try (FileChannel in = FileChannel.open(archive, StandardOpenOption.READ)) {
+            BlockInfo[] index = readHeaderAndIndex(in, archive);
+            List<ForkJoinTask<?>> tasks = new ArrayList<>(index.length);
+            long size = 0;
+            for (BlockInfo info : index) {
+                tasks.add(ForkJoinPool.commonPool().submit(() -> {
+                    try {
+                        restoreBlock(in, info);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+                size += info.originalLength();
+            }
+            joinAll(tasks);
+            return size;
+        }
+    }
+
+    private static BlockInfo[] readHeaderAndIndex(FileChannel in, Path archive) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        MappedFiles.readFully(in, header, 0);
+        if (header.get(0) != MAGIC) throw new IOException("Not a block archive: " + archive);
+        int blockSize = header.getInt(2);
+        try {
+            if (header.get(1) != PER_BLOCK) FileArchiver.byteToMethod(header.get(1));
+            checkBlockSize(blockSize);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Corrupted block archive header: " + archive, e);
+        }
+        BlockInfo[] index = readIndex(in);
+        for (BlockInfo info : index) {
+            if (info.originalLength() > blockSize) throw new IOException("Corrupted block index entry at " + info.offset());
+        }
+        return index;
+    }
+
+    // Выполняется в задаче пула: распаковка и проверка блока идут в одном потоке
+    private static byte[] restoreBlock(FileChannel in, BlockInfo info) throws IOException {
+        byte[] restored;
+        try {
+            // Длина из индекса передается декодеру: заголовок блока сверяется с ней до выделения памяти
+            restored = FileArchiver.getCompressor(info.method())
+                    .decompress(MappedFiles.read(in, info.offset(), info.packedLength()), info.originalLength());
+        } catch (RuntimeException e) {
+            // Поврежденные данные могут сломать декодер где угодно, это не ошибка программы
+            throw new IOException("Corrupted block at " + info.offset(), e);
+        }
+        if (checksum(restored, 0, restored.length) != info.checksum()) {
+            throw new IOException("Corrupted block at " + info.offset() + ": checksum mismatch");
+        }
+        return restored;
+    }
+
+    // CRC32C реализован встроенной функцией JIT (инструкции crc32 на x86 и ARM)
+    private static int checksum(byte[] data, int off, int len) {
+        CRC32C crc = new CRC32C();
+        crc.update(data, off, len);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Читает индекс блоков с конца архива и проверяет, что он согласован с размером файла.
+     */
+    static BlockInfo[] readIndex(FileChannel in) throws IOException {
+        long size = in.size();
+        if (size < HEADER_SIZE + FOOTER_SIZE) throw new EOFException("Truncated block archive");
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+        MappedFiles.readFully(in, footer, size - FOOTER_SIZE);
+        long indexOffset = footer.getLong(0);
+        int blockCount = footer.getInt(8);
+        if (blockCount < 0 || indexOffset < HEADER_SIZE
+                || indexOffset + (long) blockCount * INDEX_ENTRY_SIZE + FOOTER_SIZE != size) {
+            throw new IOException("Corrupted block index");
+        }
+        ByteBuffer raw = ByteBuffer.allocate(blockCount * INDEX_ENTRY_SIZE);
+        MappedFiles.readFully(in, raw, indexOffset);
+        raw.flip();
+        BlockInfo[] index = new BlockInfo[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            long offset = raw.getLong();
+            int packedLength = raw.getInt();
+            int originalLength = raw.getInt();
+            Method method;
+            try {
+                method = FileArchiver.byteToMethod(raw.get());
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupted block index entry " + i, e);
+            }
+            BlockInfo info = new BlockInfo(offset, packedLength, originalLength, method, raw.getInt());
+            if (info.offset() < HEADER_SIZE || info.packedLength() < 0 || info.originalLength() < 0
+                    || info.offset() + info.packedLength() > indexOffset) {
+                throw new IOException("Corrupted block index entry " + i);
+            }
+            index[i] = info;
+        }
+        return index;
+    }
+
+    /**
+     * Дожидается всех задач и пробрасывает первую ошибку (ввода-вывода — как IOException).
+     */
+    static void joinAll(List<? extends ForkJoinTask<?>> tasks) throws IOException {
+        Throwable failure = null;
+        for (ForkJoinTask<?> task : tasks) {
+            task.quietlyJoin();
+            if (failure == null && task.isCompletedAbnormally()) failure = task.getException();
+        }
+        if (failure instanceof UncheckedIOException e) throw e.getCause();
+        if (failure instanceof RuntimeException e) throw e;
+        if (failure instanceof Error e) throw e;
+        if (failure != null) throw new IOException(failure);
+    }
+
+    static void checkBlockSize(int blockSize) {
+        if (blockSize < MIN_BLOCK_SIZE || blockSize > MAX_BLOCK_SIZE) {
+            throw new IllegalArgumentException("Block size must be between " + MIN_BLOCK_SIZE
+                    + " and " + MAX_BLOCK_SIZE + " bytes: " + blockSize);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.example;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.SplittableRandom;
+
+/**
+ * Разбиение потока на фрагменты по содержимому (content-defined chunking) скользящим хешем Gear:
+ * h = (h << 1) + GEAR[b]. Граница ставится там, где старшие биты хеша нулевые, поэтому она
+ * зависит только от последних 64 байт перед ней: вставка или удаление в начале файла сдвигает
+ * лишь соседние границы, и остальные фрагменты совпадают с фрагментами прежней версии.
+ * Длина фрагмента ограничена снизу и сверху; ожидаемая длина — {@link #AVERAGE_SIZE}.
+ */
+final class Chunker {
+    static final int MIN_SIZE = 2 * 1024;
+    static final int AVERAGE_SIZE = 8 * 1024;
+    static final int MAX_SIZE = 64 * 1024;
+    // 13 старших бит: граница в среднем через 2^13 байт после минимальной длины
+    private static final long MASK = -1L << (64 - Integer.numberOfTrailingZeros(AVERAGE_SIZE));
+    private static final long[] GEAR = new long[256];
+
+    static {
+        // Таблица фиксирована: иначе границы, а значит и фрагменты, менялись бы между запусками
+        SplittableRandom random = new SplittableRandom(0x6765617243444331L);
+        for (int i = 0; i < GEAR.length; i++) GEAR[i] = random.nextLong();
+    }
+
+    private final InputStream in;
+    private final byte[] buffer = new byte[2 * MAX_SIZE];
+    private int chunkStart;
+    private int position;
+    private int limit;
+    private boolean eof;
+
+    Chunker(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Находит конец фрагмента, начинающегося в data[from].
+     * @param end конец доступных данных; если до него меньше {@link #MAX_SIZE} байт,
+     *            они считаются последними
+     * @return индекс сразу за фрагментом
+     */
+    static int boundary(byte[] data, int from, int end) {
+        int last = Math.min(end, from + MAX_SIZE);
+        if (last - from <= MIN_SIZE) return last;
+        long h = 0;
+        for (int i = from + MIN_SIZE; i < last; i++) {
+            h = (h << 1) + GEAR[data[i] & 0xFF];
+            if ((h & MASK) == 0) return i + 1;
+        }
+        return last;
+    }
+
+    /**
+     * Читает следующий фрагмент. Возвращаемый буфер принадлежит разбиению и действителен
+     * до следующего вызова; фрагмент занимает buffer()[chunkStart()..chunkStart() + длина).
+     * @return длина фрагмента; 0 — поток закончился
+     */
+    int next() throws IOException {
+        if (limit - position < MAX_SIZE && !eof) fill();
+        if (position == limit) return 0;
+        int end = boundary(buffer, position, limit);
+        int length = end - position;
+        chunkStart = position;
+        position = end;
+        return length;
+    }
+
+    byte[] buffer() {
+        return buffer;
+    }
+
+    int chunkStart() {
+        return chunkStart;
+    }
+
+    // Сдвигает непрочитанный остаток в начало буфера и дочитывает поток
+    private void fill() throws IOException {
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+        while (limit < buffer.length) {
+            int n = in.read(buffer, limit, buffer.length - limit);
+            if (n < 0) {
+                eof = true;
+                return;
+            }
+            limit += n;
+        }
+    }
+}
@@ -0,0 +1,629 @@
+package org.example;
+
+import org.example.FileArchiver.Method;
+import org.example.compression.Compressor;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * Архив из многих файлов с центральным каталогом в конце.
+ * Файлы сжимаются по очереди потоковым API своего алгоритма и пишутся подряд,
+ * поэтому и архивация, и полная распаковка идут последовательным вводом-выводом.
+ * Формат:
+ *   [0x11]
+ *   сжатые данные файлов подряд
+ *   каталог: для каждого файла [длина пути: 2 байта][путь в UTF-8][смещение: 8 байт]
+ *            [длина сжатых данных: 8 байт][длина исходных данных: 8 байт][метод: 1 байт][CRC32C: 4 байта]
+ *            [время изменения исходного файла, мс: 8 байт]
+ *   хеш-таблица путей: слоты по 8 байт — смещение записи каталога или 0 для пустого слота
+ *   [смещение каталога: 8 байт][количество файлов: 4 байта][количество слотов: 4 байта]
+ * Пути хранятся относительно корня архивируемого каталога с разделителем '/'.
+ * Хеш-таблица (открытая адресация, линейное пробирование, слотов — степень двойки не меньше
+ * удвоенного числа файлов) позволяет найти запись по пути, прочитав несколько слотов
+ * и одну запись, без разбора всего каталога.
+ * <p>
+ * Обновление только дописывает: новые данные и новый каталог пишутся в конец, поэтому
+ * между записями могут оставаться мертвые участки (замененные данные, прежние каталоги).
+ * Читатели находят записи только через каталог и мертвые участки не замечают.
+ */
+final class Container {
+    /** Первый байт архива-контейнера; не совпадает с байт-метками методов и блочного архива. */
+    static final byte MAGIC = 0x11;
+    private static final int HEADER_SIZE = 1;
+    private static final int FOOTER_SIZE = 16;
+    private static final int SLOT_SIZE = 8;
+    private static final int ENTRY_FIXED_SIZE = 2 + 8 + 8 + 8 + 1 + 4 + 8;
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Запись каталога.
+     * @param path путь файла внутри архива
+     * @param offset смещение сжатых данных в архиве
+     * @param packedSize длина сжатых данных
+     * @param originalSize длина исходного файла
+     * @param method алгоритм сжатия
+     * @param checksum CRC32C исходных данных
+     * @param modified время последнего изменения исходного файла на момент сжатия, мс
+     */
+    record Entry(String path, long offset, long packedSize, long originalSize, Method method, int checksum,
+                 long modified) {
+        Entry withModified(long modified) {
+            return new Entry(path, offset, packedSize, originalSize, method, checksum, modified);
+        }
+    }
+
+    private Container() {
+    }
+
+    /**
+     * Архивирует все обычные файлы каталога (рекурсивно) в один контейнер.
+     * @param directory корень архивируемого каталога или отдельный файл (запись с именем файла)
+     * @param output архив
+     * @param method алгоритм сжатия; null — выбирать алгоритм для каждого файла по его содержимому
+     * @return записи каталога в порядке записи
+     */
+    static List<Entry> compress(Path directory, Path output, Method method) throws IOException {
+        Map<String, Path> files = sources(directory, output);
+        List<Entry> entries = new ArrayList<>(files.size());
+        try (CountingOutputStream counter = new CountingOutputStream(MappedFiles.newOutputStream(output), 0);
+             DataOutputStream out = new DataOutputStream(counter)) {
+            out.writeByte(MAGIC);
+            for (Map.Entry<String, Path> file : files.entrySet()) {
+                entries.add(writeEntry(counter, file.getKey(), file.getValue(), method));
+            }
+            writeDirectory(out, counter.count, entries);
+        } catch (IOException | RuntimeException e) {
+            // Контейнер без каталога не читается, поэтому на месте архива не остается ничего
+            Files.deleteIfExists(output);
+            throw e;
+        }
+        return entries;
+    }
+
+    /**
+     * Дописывает в контейнер новые и изменившиеся файлы каталога. Сжатые данные дописываются
+     * в конец архива, за ними — новый каталог; прежние данные не читаются и не перекодируются,
+     * а замененные записи и прежний каталог остаются мертвым местом до {@link #compact}.
+     * Файл считается неизменным, если его длина и время изменения совпадают с записью каталога;
+     * такой файл даже не открывается. Если совпадает только длина, файл читается и сравнивается
+     * CRC32C: при совпадении в записи обновляется лишь время изменения (данные не дописываются,
+     * но каталог переписывается, чтобы в следующий раз файл снова не читать).
+     * Записи файлов, удаленных из каталога, сохраняются. При ошибке архив обрезается
+     * до прежней длины, так что в конце снова оказывается прежний каталог.
+     * @param directory каталог или отдельный файл
+     * @param archive архив; если его нет, он создается
+     * @param method алгоритм сжатия; null — выбирать алгоритм для каждого файла по его содержимому
+     * @return дописанные записи
+     */
+    static List<Entry> update(Path directory, Path archive, Method method) throws IOException {
+        if (!Files.exists(archive)) return compress(directory, archive, method);
+        // Архив другого формата не открывается на запись
+        checkMagic(archive);
+        Map<String, Path> files = sources(directory, archive);
+        try (FileChannel ch = FileChannel.open(archive, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            List<Entry> entries = new ArrayList<>(readDirectory(ch));
+            Map<String, Integer> positions = new HashMap<>(entries.size() * 4 / 3 + 1);
+            for (int i = 0; i < entries.size(); i++) positions.put(entries.get(i).path(), i);
+            long end = ch.size();
+            List<Entry> appended = new ArrayList<>();
+            boolean touched = false;
+            try (CountingOutputStream counter = new CountingOutputStream(MappedFiles.newOutputStream(ch, end), end);
+                 DataOutputStream out = new DataOutputStream(counter)) {
+                for (Map.Entry<String, Path> file : files.entrySet()) {
+                    Integer position = positions.get(file.getKey());
+                    if (position != null) {
+                        Entry previous = entries.get(position);
+                        long modified = Files.getLastModifiedTime(file.getValue()).toMillis();
+                        if (Files.size(file.getValue()) == previous.originalSize()
+                                && (modified == previous.modified() || sameChecksum(previous, file.getValue()))) {
+                            if (modified != previous.modified()) {
+                                entries.set(position, previous.withModified(modified));
+                                touched = true;
+                            }
+                            continue;
+                        }
+                    }
+                    Entry entry = writeEntry(counter, file.getKey(), file.getValue(), method);
+                    if (position != null) {
+                        entries.set(position, entry);
+                    } else {
+                        positions.put(entry.path(), entries.size());
+                        entries.add(entry);
+                    }
+                    appended.add(entry);
+                }
+                if (!appended.isEmpty() || touched) writeDirectory(out, counter.count, entries);
+            } catch (IOException | RuntimeException e) {
+                ch.truncate(end);
+                throw e;
+            }
+            return appended;
+        }
+    }
+
+    /**
+     * Переписывает контейнер без мертвого места: сжатые данные живых записей копируются
+     * как есть (без перекодирования) во временный файл рядом с архивом, который затем
+     * атомарно заменяет архив.
+     * @return сколько байт освобождено
+     */
+    static long compact(Path archive) throws IOException {
+        checkMagic(archive);
+        Path absolute = archive.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        long before, after;
+        try {
+            try (FileChannel in = FileChannel.open(archive, StandardOpenOption.READ);
+                 FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                List<Entry> entries = readDirectory(in);
+                before = in.size();
+                MappedFiles.writeFully(out, ByteBuffer.wrap(new byte[]{MAGIC}), 0);
+                long position = HEADER_SIZE;
+                List<Entry> moved = new ArrayList<>(entries.size());
+                for (Entry entry : entries) {
+                    transfer(in, entry.offset(), entry.packedSize(), out, position);
+                    moved.add(new Entry(entry.path(), position, entry.packedSize(), entry.originalSize(),
+                            entry.method(), entry.checksum(), entry.modified()));
+                    position += entry.packedSize();
+                }
+                try (DataOutputStream directory = new DataOutputStream(MappedFiles.newOutputStream(out, position))) {
+                    writeDirectory(directory, position, moved);
+                }
+                after = out.size();
+            }
+            Files.move(temp, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        return before - after;
+    }
+
+    // Копирует диапазон между каналами средствами ОС, минуя кучу
+    private static void transfer(FileChannel in, long offset, long length, FileChannel out, long position) throws IOException {
+        out.position(position);
+        for (long done = 0; done < length; ) {
+            long n = in.transferTo(offset + done, length - done, out);
+            if (n <= 0) throw new EOFException("Truncated container entry");
+            done += n;
+        }
+    }
+
+    // Файлы для архивации по путям внутри архива; сам архив может лежать внутри каталога
+    static Map<String, Path> sources(Path input, Path archive) throws IOException {
+        Map<String, Path> files = new LinkedHashMap<>();
+        if (!Files.isDirectory(input)) {
+            files.put(input.getFileName().toString(), input);
+            return files;
+        }
+        Path self = archive.toAbsolutePath().normalize();
+        try (Stream<Path> walk = Files.walk(input)) {
+            walk.filter(Files::isRegularFile).filter(f -> !f.toAbsolutePath().normalize().equals(self)).sorted()
+                    .forEach(f -> files.put(entryPath(input, f), f));
+        }
+        return files;
+    }
+
+    // Сжимает файл в конец потока архива и возвращает его запись
+    private static Entry writeEntry(CountingOutputStream out, String path, Path file, Method method) throws IOException {
+        Method fileMethod = method != null ? method : SampleAnalyzer.select(file);
+        // Время берется до чтения: изменение во время сжатия будет замечено следующим обновлением
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        long offset = out.count;
+        ChecksumInputStream in = new ChecksumInputStream(FileArchiver.openInput(file.toString()));
+        try (in) {
+            FileArchiver.getCompressor(fileMethod).compress(in, out);
+        }
+        return new Entry(path, offset, out.count - offset, in.count, fileMethod, (int) in.crc.getValue(), modified);
+    }
+
+    private static boolean sameChecksum(Entry entry, Path file) throws IOException {
+        ChecksumInputStream in = new ChecksumInputStream(FileArchiver.openInput(file.toString()));
+        try (in) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        return (int) in.crc.getValue() == entry.checksum();
+    }
+
+    // Путь относительно корня с разделителем '/' независимо от ОС
+    private static String entryPath(Path root, Path file) {
+        StringBuilder sb = new StringBuilder();
+        for (Path part : root.relativize(file)) {
+            if (sb.length() > 0) sb.append('/');
+            sb.append(part);
+        }
+        return sb.toString();
+    }
+
+    private static void writeDirectory(DataOutputStream out, long directoryOffset, List<Entry> entries) throws IOException {
+        long[] positions = new long[entries.size()];
+        long position = directoryOffset;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            byte[] path = entry.path().getBytes(StandardCharsets.UTF_8);
+            if (path.length > 0xFFFF) throw new IOException("Path too long: " + entry.path());
+            positions[i] = position;
+            position += ENTRY_FIXED_SIZE + path.length;
+            out.writeShort(path.length);
+            out.write(path);
+            out.writeLong(entry.offset());
+            out.writeLong(entry.packedSize());
+            out.writeLong(entry.originalSize());
+            out.writeByte(FileArchiver.methodToByte(entry.method()));
+            out.writeInt(entry.checksum());
+            out.writeLong(entry.modified());
+        }
+        int slots = entries.isEmpty() ? 0 : Integer.highestOneBit(2 * entries.size() - 1) << 1;
+        long[] table = new long[slots];
+        for (int i = 0; i < entries.size(); i++) {
+            int slot = slot(entries.get(i).path(), slots);
+            while (table[slot] != 0) slot = (slot + 1) & (slots - 1);
+            table[slot] = positions[i];
+        }
+        for (long entryPosition : table) out.writeLong(entryPosition);
+        out.writeLong(directoryOffset);
+        out.writeInt(entries.size());
+        out.writeInt(slots);
+    }
+
+    // String.hashCode определен спецификацией, поэтому слоты совпадают в любой JVM
+    private static int slot(String path, int slots) {
+        int h = path.hashCode() * 0x9E3779B1;
+        return (h ^ (h >>> 16)) & (slots - 1);
+    }
+
+    /**
+     * Концевик архива: где лежат каталог и хеш-таблица.
+     */
+    private record Footer(long directoryOffset, int entryCount, int slots, long tableOffset) {
+    }
+
+    private static Footer readFooter(FileChannel in) throws IOException {
+        checkMagic(in);
+        long size = in.size();
+        if (size < HEADER_SIZE + FOOTER_SIZE) throw new EOFException("Truncated container");
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+        MappedFiles.readFully(in, footer, size - FOOTER_SIZE);
+        long directoryOffset = footer.getLong(0);
+        int entryCount = footer.getInt(8);
+        int slots = footer.getInt(12);
+        long tableOffset = size - FOOTER_SIZE - (long) slots * SLOT_SIZE;
+        if (entryCount < 0 || slots < 0 || Integer.bitCount(slots) > 1 || slots < entryCount
+                || directoryOffset < HEADER_SIZE || tableOffset - directoryOffset < (long) entryCount * ENTRY_FIXED_SIZE) {
+            throw new IOException("Corrupted container directory");
+        }
+        return new Footer(directoryOffset, entryCount, slots, tableOffset);
+    }
+
+    private static void checkMagic(Path archive) throws IOException {
+        try (FileChannel in = FileChannel.open(archive, StandardOpenOption.READ)) {
+            checkMagic(in);
+        }
+    }
+
+    // Блочный архив и архив с дедупликацией не поврежденные контейнеры, а другие форматы
+    private static void checkMagic(FileChannel in) throws IOException {
+        ByteBuffer tag = ByteBuffer.allocate(HEADER_SIZE);
+        if (in.read(tag, 0) < HEADER_SIZE) throw new EOFException("Truncated container");
+        if (tag.get(0) != MAGIC) throw new IOException("Not a container archive");
+    }
+
+    // Разбирает запись каталога с текущей позиции raw
+    private static Entry readEntry(ByteBuffer raw, long directoryOffset) throws IOException {
+        try {
+            byte[] path = new byte[raw.getShort() & 0xFFFF];
+            raw.get(path);
+            Entry entry = new Entry(new String(path, StandardCharsets.UTF_8), raw.getLong(), raw.getLong(),
+                    raw.getLong(), FileArchiver.byteToMethod(raw.get()), raw.getInt(), raw.getLong());
+            if (entry.offset() < HEADER_SIZE || entry.packedSize() < 0 || entry.originalSize() < 0
+                    || entry.offset() + entry.packedSize() > directoryOffset) {
+                throw new IOException("Corrupted container entry: " + entry.path());
+            }
+            return entry;
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupted container directory", e);
+        }
+    }
+
+    /**
+     * Читает центральный каталог с конца архива и проверяет, что он согласован с размером файла.
+     */
+    static List<Entry> readDirectory(FileChannel in) throws IOException {
+        Footer footer = readFooter(in);
+        long directorySize = footer.tableOffset() - footer.directoryOffset();
+        if (directorySize > Integer.MAX_VALUE) throw new IOException("Corrupted container directory");
+        ByteBuffer raw = ByteBuffer.allocate((int) directorySize);
+        MappedFiles.readFully(in, raw, footer.directoryOffset());
+        raw.flip();
+        List<Entry> entries = new ArrayList<>(footer.entryCount());
+        for (int i = 0; i < footer.entryCount(); i++) entries.add(readEntry(raw, footer.directoryOffset()));
+        if (raw.hasRemaining()) throw new IOException("Corrupted container directory");
+        return entries;
+    }
+
+    /**
+     * Ищет запись по пути через хеш-таблицу: читаются только пробируемые слоты и записи
+     * с совпадающей длиной пути, каталог целиком не разбирается.
+     * @return запись или null, если такого пути в архиве нет
+     */
+    static Entry find(FileChannel in, String path) throws IOException {
+        Footer footer = readFooter(in);
+        if (footer.slots() == 0) return null;
+        int pathLength = path.getBytes(StandardCharsets.UTF_8).length;
+        ByteBuffer word = ByteBuffer.allocate(SLOT_SIZE);
+        for (int probe = 0, slot = slot(path, footer.slots()); probe < footer.slots();
+             probe++, slot = (slot + 1) & (footer.slots() - 1)) {
+            MappedFiles.readFully(in, word.clear(), footer.tableOffset() + (long) slot * SLOT_SIZE);
+            long position = word.getLong(0);
+            if (position == 0) return null;
+            if (position < footer.directoryOffset() || position + ENTRY_FIXED_SIZE > footer.tableOffset()) {
+                throw new IOException("Corrupted container path table");
+            }
+            MappedFiles.readFully(in, word.clear().limit(2), position);
+            if ((word.getShort(0) & 0xFFFF) != pathLength) continue;
+            if (position + ENTRY_FIXED_SIZE + pathLength > footer.tableOffset()) {
+                throw new IOException("Corrupted container path table");
+            }
+            ByteBuffer raw = ByteBuffer.allocate(ENTRY_FIXED_SIZE + pathLength);
+            MappedFiles.readFully(in, raw, position);
+            Entry entry = readEntry(raw.flip(), footer.directoryOffset());
+            if (entry.path().equals(path)) return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Распаковывает все файлы контейнера в каталог. Архив читается одним последовательным потоком
+     * в порядке смещений; размер и CRC32C каждого файла сверяются с каталогом.
+     * @param archive путь к архиву
+     * @param directory каталог, в который восстанавливаются файлы
+     */
+    static void extract(Path archive, Path directory) throws IOException {
+        List<Entry> entries;
+        try (FileChannel ch = FileChannel.open(archive, StandardOpenOption.READ)) {
+            entries = new ArrayList<>(readDirectory(ch));
+        }
+        entries.sort(Comparator.comparingLong(Entry::offset));
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(archive), IO_BUFFER_SIZE)) {
+            long position = 0;
+            for (Entry entry : entries) {
+                if (entry.offset() < position) throw new IOException("Overlapping container entries");
+                in.skipNBytes(entry.offset() - position);
+                extractEntry(entry, new RangeInputStream(in, entry.packedSize()), resolve(directory, entry.path()));
+                position = entry.offset() + entry.packedSize();
+            }
+        }
+    }
+
+    /**
+     * Распаковывает один файл контейнера. Запись ищется по хеш-таблице путей без разбора каталога,
+     * в память отображается только диапазон ее сжатых данных, поэтому объем ввода-вывода
+     * пропорционален размеру файла, а не архива.
+     * @param archive путь к архиву
+     * @param path путь файла внутри архива
+     * @param target куда записать восстановленный файл
+     * @throws FileNotFoundException если в архиве нет такого файла
+     */
+    static void extract(Path archive, String path, Path target) throws IOException {
+        try (FileChannel ch = FileChannel.open(archive, StandardOpenOption.READ)) {
+            Entry entry = find(ch, path);
+            if (entry == null) throw new FileNotFoundException("No entry " + path + " in " + archive);
+            InputStream packed = MappedFiles.newInputStream(ch, entry.offset(), entry.packedSize());
+            extractEntry(entry, new RangeInputStream(packed, entry.packedSize()), target);
+        }
+    }
+
+    /**
+     * Восстанавливает один файл из потока его сжатых данных и сверяет длину и CRC32C с каталогом.
+     * Если запись повреждена, недописанный файл удаляется.
+     */
+    private static void extractEntry(Entry entry, RangeInputStream packed, Path target) throws IOException {
+        Path parent = target.toAbsolutePath().getParent();
+        if (parent != null) Files.createDirectories(parent);
+        try {
+            restoreEntry(entry, packed, MappedFiles.newOutputStream(target));
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(target);
+            throw e;
+        }
+    }
+
+    // Распаковывает запись в out (закрывает его) и сверяет ее с каталогом
+    private static void restoreEntry(Entry entry, RangeInputStream packed, OutputStream target) throws IOException {
+        Compressor compressor = FileArchiver.getCompressor(entry.method());
+        ChecksumOutputStream out = new ChecksumOutputStream(target);
+        try (out) {
+            compressor.decompress(packed, out);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupted container entry: " + entry.path(), e);
+        }
+        if (packed.remaining != 0 || out.count != entry.originalSize() || (int) out.crc.getValue() != entry.checksum()) {
+            throw new IOException("Corrupted container entry: " + entry.path());
+        }
+    }
+
+    /**
+     * Проверяет все записи контейнера без записи результата: каждая распаковывается
+     * и сверяется с длиной и CRC32C из каталога. Архив читается последовательно.
+     * @return суммарная длина исходных файлов
+     * @throws IOException если архив поврежден
+     */
+    static long verify(Path archive) throws IOException {
+        List<Entry> entries;
+        try (FileChannel ch = FileChannel.open(archive, StandardOpenOption.READ)) {
+            entries = new ArrayList<>(readDirectory(ch));
+        }
+        entries.sort(Comparator.comparingLong(Entry::offset));
+        long total = 0;
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(archive), IO_BUFFER_SIZE)) {
+            long position = 0;
+            for (Entry entry : entries) {
+                if (entry.offset() < position) throw new IOException("Overlapping container entries");
+                in.skipNBytes(entry.offset() - position);
+                restoreEntry(entry, new RangeInputStream(in, entry.packedSize()), OutputStream.nullOutputStream());
+                position = entry.offset() + entry.packedSize();
+                total += entry.originalSize();
+            }
+        }
+        return total;
+    }
+
+    // Путь из архива не должен выходить за пределы каталога распаковки
+    static Path resolve(Path directory, String path) throws IOException {
+        Path root = directory.toAbsolutePath().normalize();
+        Path target = root.resolve(path).normalize();
+        if (!target.startsWith(root) || target.equals(root)) throw new IOException("Illegal entry path: " + path);
+        return target;
+    }
+
+    /**
+     * Считает переданные байты. flush не передается дальше: алгоритмы сбрасывают поток
+     * после каждого файла, а канал достаточно сбросить один раз при закрытии.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out, long count) {
+            super(out);
+            this.count = count;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+    /**
+     * Поток исходных данных файла, попутно считающий их длину и CRC32C.
+     */
+    private static final class ChecksumInputStream extends FilterInputStream {
+        final Checksum crc = new CRC32C();
+        long count;
+
+        ChecksumInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                crc.update(b);
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                crc.update(b, off, n);
+                count += n;
+            }
+            return n;
+        }
+    }
+
+    /**
+     * Поток восстановленных данных, попутно считающий их длину и CRC32C.
+     */
+    private static final class ChecksumOutputStream extends FilterOutputStream {
+        final Checksum crc = new CRC32C();
+        long count;
+
+        ChecksumOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            crc.update(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            crc.update(b, off, len);
+            count += len;
+        }
+    }
+
+    /**
+     * Ограничивает поток первыми remaining байтами: алгоритм видит только данные своего файла.
+     */
+    static final class RangeInputStream extends FilterInputStream {
+        long remaining;
+
+        RangeInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining == 0) return -1;
+            int b = in.read();
+            if (b < 0) throw new EOFException("Truncated container entry");
+            remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (remaining == 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) throw new EOFException("Truncated container entry");
+            remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            remaining -= skipped;
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(remaining, in.available());
+        }
+
+        @Override
+        public void close() {
+            // Общий поток архива закрывает вызывающий
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package org.example;
+
+import org.example.FileArchiver.Method;
+import org.example.compression.Compressor;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32C;
+
+/**
+ * Архив с дедупликацией: файлы режутся на фрагменты по содержимому ({@link Chunker}),
+ * каждый уникальный фрагмент (по SHA-256) хранится один раз, а файлы — это списки ссылок
+ * на фрагменты. Повторные фрагменты не сжимаются вовсе.
+ * <p>
+ * Уникальные фрагменты копятся подряд в сегменты по {@link #SEGMENT_SIZE} байт, и сжимается
+ * уже сегмент целиком: фрагменты в несколько килобайт по отдельности сжимались бы плохо.
+ * Сегменты сжимаются параллельно в общем пуле, пока основной поток режет и хеширует дальше.
+ * Формат:
+ *   [0x12]
+ *   сжатые сегменты подряд
+ *   каталог: [число сегментов: 4 байта], для каждого [смещение: 8][длина сжатых: 4][длина исходных: 4][метод: 1]
+ *            [число фрагментов: 4 байта], для каждого [сегмент: 4][смещение в сегменте: 4][длина: 4]
+ *            [число файлов: 4 байта], для каждого [длина пути: 2][путь в UTF-8][длина файла: 8][CRC32C: 4]
+ *            [число ссылок: 4][номера фрагментов по 4 байта]
+ *   [смещение каталога: 8 байт]
+ */
+final class DedupArchive {
+    /** Первый байт архива с дедупликацией; не совпадает с байт-метками методов и других архивов. */
+    static final byte MAGIC = 0x12;
+    static final int SEGMENT_SIZE = 1 << 18;
+    private static final int HEADER_SIZE = 1;
+    private static final int FOOTER_SIZE = 8;
+    /** Сколько распакованных сегментов держит в памяти распаковка (по 256 КБ каждый). */
+    static final int CACHED_SEGMENTS = 8;
+
+    /**
+     * Сжатый сегмент уникальных фрагментов.
+     */
+    record Segment(long offset, int packedLength, int originalLength, Method method) {
+    }
+
+    /**
+     * Уникальный фрагмент: его место в исходных данных сегмента.
+     */
+    record Chunk(int segment, int offset, int length) {
+    }
+
+    /**
+     * Файл архива.
+     * @param size длина файла
+     * @param checksum CRC32C исходных данных
+     * @param chunks номера фрагментов по порядку
+     */
+    record FileEntry(String path, long size, int checksum, int[] chunks) {
+    }
+
+    /**
+     * Итог архивации.
+     * @param chunks число фрагментов во всех файлах
+     * @param uniqueChunks число сохраненных (уникальных) фрагментов
+     * @param originalBytes суммарная длина файлов
+     * @param uniqueBytes суммарная длина уникальных фрагментов — столько данных было сжато
+     */
+    record Summary(int files, long chunks, int uniqueChunks, long originalBytes, long uniqueBytes) {
+    }
+
+    private record Directory(List<Segment> segments, List<Chunk> chunks, List<FileEntry> files) {
+    }
+
+    private record PackedSegment(Method method, int originalLength, byte[] data, int length) {
+    }
+
+    private final FileChannel channel;
+    private final Method method;
+    private final List<Segment> segments = new ArrayList<>();
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final Map<ByteBuffer, Integer> known = new HashMap<>();
+    private final ArrayDeque<ForkJoinTask<PackedSegment>> pending = new ArrayDeque<>();
+    private final int maxPending = 2 * ForkJoinPool.getCommonPoolParallelism();
+    private byte[] segment = new byte[SEGMENT_SIZE];
+    private int segmentLength;
+    private long position = HEADER_SIZE;
+    private long uniqueBytes;
+
+    private DedupArchive(FileChannel channel, Method method) {
+        this.channel = channel;
+        this.method = method;
+    }
+
+    /**
+     * Архивирует каталог (рекурсивно) или отдельный файл с дедупликацией фрагментов.
+     * @param input каталог или файл
+     * @param output архив
+     * @param method алгоритм сжатия сегментов; null — выбирать для каждого сегмента по содержимому
+     * @return итог архивации
+     */
+    static Summary compress(Path input, Path output, Method method) throws IOException {
+        Map<String, Path> sources = Container.sources(input, output);
+        MessageDigest sha = sha256();
+        List<FileEntry> files = new ArrayList<>(sources.size());
+        long chunkCount = 0, originalBytes = 0;
+        try (FileChannel ch = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            DedupArchive archive = new DedupArchive(ch, method);
+            MappedFiles.writeFully(ch, ByteBuffer.wrap(new byte[]{MAGIC}), 0);
+            for (Map.Entry<String, Path> source : sources.entrySet()) {
+                CRC32C crc = new CRC32C();
+                long size = 0;
+                int[] refs = new int[16];
+                int refCount = 0;
+                try (InputStream in = FileArchiver.openInput(source.getValue().toString())) {
+                    Chunker chunker = new Chunker(in);
+                    for (int n; (n = chunker.next()) > 0; ) {
+                        byte[] buf = chunker.buffer();
+                        int off = chunker.chunkStart();
+                        crc.update(buf, off, n);
+                        sha.update(buf, off, n);
+                        if (refCount == refs.length) refs = Arrays.copyOf(refs, refCount * 2);
+                        refs[refCount++] = archive.add(ByteBuffer.wrap(sha.digest()), buf, off, n);
+                        size += n;
+                    }
+                }
+                files.add(new FileEntry(source.getKey(), size, (int) crc.getValue(), Arrays.copyOf(refs, refCount)));
+                chunkCount += refCount;
+                originalBytes += size;
+            }
+            archive.finish(files);
+            return new Summary(files.size(), chunkCount, archive.chunks.size(), originalBytes, archive.uniqueBytes);
+        } catch (IOException | RuntimeException e) {
+            // Архив без каталога не читается: оборванный файл удаляется
+            Files.deleteIfExists(output);
+            throw e;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Возвращает номер фрагмента; новый фрагмент дописывается в текущий сегмент
+    private int add(ByteBuffer fingerprint, byte[] buf, int off, int len) throws IOException {
+        Integer id = known.get(fingerprint);
+        if (id != null) return id;
+        if (segmentLength + len > SEGMENT_SIZE) flushSegment();
+        id = chunks.size();
+        chunks.add(new Chunk(segments.size() + pending.size(), segmentLength, len));
+        System.arraycopy(buf, off, segment, segmentLength, len);
+        segmentLength += len;
+        uniqueBytes += len;
+        known.put(fingerprint, id);
+        return id;
+    }
+
+    // Отдает заполненный сегмент на сжатие; готовые сегменты пишутся строго по порядку
+    private void flushSegment() throws IOException {
+        if (segmentLength == 0) return;
+        byte[] data = segment;
+        int length = segmentLength;
+        pending.add(ForkJoinPool.commonPool().submit(() -> pack(data, length)));
+        segment = new byte[SEGMENT_SIZE];
+        segmentLength = 0;
+        while (pending.size() > maxPending) writeSegment(pending.poll());
+    }
+
+    // Выполняется в пуле: сжимает сегмент в отдельный массив, смещение назначит writeSegment
+    private PackedSegment pack(byte[] data, int length) {
+        Method segmentMethod = method != null ? method : SampleAnalyzer.select(data, 0, length);
+        Compressor compressor = FileArchiver.getCompressor(segmentMethod);
+        byte[] packed = new byte[compressor.maxCompressedLength(length)];
+        int packedLength = compressor.compress(data, 0, length, packed, 0);
+        return new PackedSegment(segmentMethod, length, packed, packedLength);
+    }
+
+    private void writeSegment(ForkJoinTask<PackedSegment> task) throws IOException {
+        PackedSegment packed = task.join();
+        MappedFiles.writeFully(channel, ByteBuffer.wrap(packed.data(), 0, packed.length()), position);
+        segments.add(new Segment(position, packed.length(), packed.originalLength(), packed.method()));
+        position += packed.length();
+    }
+
+    // Дописывает последние сегменты и каталог
+    private void finish(List<FileEntry> files) throws IOException {
+        flushSegment();
+        while (!pending.isEmpty()) writeSegment(pending.poll());
+        try (DataOutputStream out = new DataOutputStream(MappedFiles.newOutputStream(channel, position))) {
+            out.writeInt(segments.size());
+            for (Segment s : segments) {
+                out.writeLong(s.offset());
+                out.writeInt(s.packedLength());
+                out.writeInt(s.originalLength());
+                out.writeByte(FileArchiver.methodToByte(s.method()));
+            }
+            out.writeInt(chunks.size());
+            for (Chunk c : chunks) {
+                out.writeInt(c.segment());
+                out.writeInt(c.offset());
+                out.writeInt(c.length());
+            }
+            out.writeInt(files.size());
+            for (FileEntry file : files) {
+                byte[] path = file.path().getBytes(StandardCharsets.UTF_8);
+                if (path.length > 0xFFFF) throw new IOException("Path too long: " + file.path());
+                out.writeShort(path.length);
+                out.write(path);
+                out.writeLong(file.size());
+                out.writeInt(file.checksum());
+                out.writeInt(file.chunks().length);
+                for (int ref : file.chunks()) out.writeInt(ref);
+            }
+            out.writeLong(position);
+        }
+    }
+
+    /**
+     * Читает каталог с конца архива и проверяет, что все ссылки в нем указывают внутрь архива.
+     */
+    private static Directory readDirectory(FileChannel in) throws IOException {
+        long size = in.size();
+        if (size < HEADER_SIZE + FOOTER_SIZE) throw new EOFException("Truncated dedup archive");
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+        MappedFiles.readFully(in, footer, size - FOOTER_SIZE);
+        long directoryOffset = footer.getLong(0);
+        long directorySize = size - FOOTER_SIZE - directoryOffset;
+        if (directoryOffset < HEADER_SIZE || directorySize < 12 || directorySize > Integer.MAX_VALUE) {
+            throw new IOException("Corrupted dedup archive directory");
+        }
+        ByteBuffer raw = ByteBuffer.allocate((int) directorySize);
+        MappedFiles.readFully(in, raw, directoryOffset);
+        raw.flip();
+        try {
+            List<Segment> segments = new ArrayList<>();
+            for (int i = 0, n = count(raw, 17); i < n; i++) {
+                Segment s = new Segment(raw.getLong(), raw.getInt(), raw.getInt(), FileArchiver.byteToMethod(raw.get()));
+                if (s.offset() < HEADER_SIZE || s.packedLength() < 0 || s.offset() + s.packedLength() > directoryOffset
+                        || s.originalLength() < 0 || s.originalLength() > SEGMENT_SIZE) {
+                    throw new IOException("Corrupted dedup segment " + i);
+                }
+                segments.add(s);
+            }
+            List<Chunk> chunks = new ArrayList<>();
+            for (int i = 0, n = count(raw, 12); i < n; i++) {
+                Chunk c = new Chunk(raw.getInt(), raw.getInt(), raw.getInt());
+                if (c.segment() < 0 || c.segment() >= segments.size() || c.offset() < 0 || c.length() <= 0
+                        || c.offset() + c.length() > segments.get(c.segment()).originalLength()) {
+                    throw new IOException("Corrupted dedup chunk " + i);
+                }
+                chunks.add(c);
+            }
+            List<FileEntry> files = new ArrayList<>();
+            for (int i = 0, n = count(raw, 18); i < n; i++) {
+                byte[] path = new byte[raw.getShort() & 0xFFFF];
+                raw.get(path);
+                long fileSize = raw.getLong();
+                int checksum = raw.getInt();
+                int[] refs = new int[count(raw, 4)];
+                for (int r = 0; r < refs.length; r++) {
+                    refs[r] = raw.getInt();
+                    if (refs[r] < 0 || refs[r] >= chunks.size()) throw new IOException("Corrupted dedup file entry " + i);
+                }
+                files.add(new FileEntry(new String(path, StandardCharsets.UTF_8), fileSize, checksum, refs));
+            }
+            if (raw.hasRemaining()) throw new IOException("Corrupted dedup archive directory");
+            return new Directory(segments, chunks, files);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupted dedup archive directory", e);
+        }
+    }
+
+    // Читает число записей и проверяет, что на них хватает оставшихся байт каталога
+    private static int count(ByteBuffer raw, int minRecordSize) throws IOException {
+        int n = raw.getInt();
+        if (n < 0 || (long) n * minRecordSize > raw.remaining()) throw new IOException("Corrupted dedup archive directory");
+        return n;
+    }
+
+    /**
+     * Возвращает файлы архива в порядке записи; читается только каталог, сегменты не распаковываются.
+     * @param archive путь к архиву
+     */
+    static List<FileEntry> list(Path archive) throws IOException {
+        try (FileChannel ch = FileChannel.open(archive, StandardOpenOption.READ)) {
+            return readDirectory(ch).files();
+        }
+    }
+
+    /**
+     * Восстанавливает все файлы архива в каталог и сверяет длину и CRC32C каждого файла.
+     * Распакованные сегменты хранятся в небольшом кэше ({@link #CACHED_SEGMENTS} последних
+     * использованных): у близких версий файла фрагменты чередуются между старыми сегментами
+     * и дописанными к ним новыми, и без кэша каждое переключение распаковывало бы сегмент заново.
+     * @param archive путь к архиву
+     * @param directory каталог, в который восстанавливаются файлы
+     */
+    static void extract(Path archive, Path directory) throws IOException {
+        restore(archive, directory);
+    }
+
+    /**
+     * Проверяет архив без записи результата: все файлы собираются из фрагментов
+     * и сверяются с длиной и CRC32C из каталога.
+     * @return суммарная длина исходных файлов
+     * @throws IOException если архив поврежден
+     */
+    static long verify(Path archive) throws IOException {
+        return restore(archive, null);
+    }
+
+    // directory == null — только проверка
+    private static long restore(Path archive, Path directory) throws IOException {
+        long total = 0;
+        try (FileChannel ch = FileChannel.open(archive, StandardOpenOption.READ)) {
+            Directory dir = readDirectory(ch);
+            SegmentCache cache = new SegmentCache(ch, dir.segments());
+            for (FileEntry file : dir.files()) {
+                Path target = directory != null ? Container.resolve(directory, file.path()) : null;
+                if (target != null) Files.createDirectories(target.getParent());
+                CRC32C crc = new CRC32C();
+                long size = 0;
+                try {
+                    try (OutputStream out = target != null ? MappedFiles.newOutputStream(target) : OutputStream.nullOutputStream()) {
+                        for (int ref : file.chunks()) {
+                            Chunk chunk = dir.chunks().get(ref);
+                            byte[] data = cache.segment(chunk.segment());
+                            out.write(data, chunk.offset(), chunk.length());
+                            crc.update(data, chunk.offset(), chunk.length());
+                            size += chunk.length();
+                        }
+                    }
+                    if (size != file.size() || (int) crc.getValue() != file.checksum()) {
+                        throw new IOException("Corrupted dedup archive entry: " + file.path());
+                    }
+                } catch (IOException | RuntimeException e) {
+                    // Недописанный или несовпавший файл не остается среди восстановленных
+                    if (target != null) Files.deleteIfExists(target);
+                    throw e;
+                }
+                total += size;
+            }
+        }
+        return total;
+    }
+
+    private static byte[] readSegment(FileChannel ch, Segment segment) throws IOException {
+        ByteBuffer packed = MappedFiles.read(ch, segment.offset(), segment.packedLength());
+        byte[] data;
+        try {
+            data = FileArchiver.getCompressor(segment.method()).decompress(packed, segment.originalLength());
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupted dedup segment at " + segment.offset(), e);
+        }
+        return data;
+    }
+
+    /**
+     * Распакованные сегменты, вытесняемые по давности использования (LRU).
+     */
+    private static final class SegmentCache {
+        // Порядок доступа: первым идет дольше всех не использованный сегмент
+        private final Map<Integer, byte[]> cached = new LinkedHashMap<>(16, 0.75f, true);
+        private final FileChannel channel;
+        private final List<Segment> segments;
+
+        SegmentCache(FileChannel channel, List<Segment> segments) {
+            this.channel = channel;
+            this.segments = segments;
+        }
+
+        byte[] segment(int segment) throws IOException {
+            byte[] data = cached.get(segment);
+            if (data == null) {
+                data = readSegment(channel, segments.get(segment));
+                put(segment, data);
+            }
+            return data;
+        }
+
+        private void put(int segment, byte[] data) {
+            if (cached.size() == CACHED_SEGMENTS) {
+                Iterator<Integer> eldest = cached.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+            cached.put(segment, data);
+        }
+    }
+}
@@ -2,9 +2,12 @@ package org.example;
 
 import org.example.compression.*;
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Set;
+import java.util.List;
 
 /**
  * Основной класс для работы с файлами: архивация и разархивация.
@@ -16,10 +19,26 @@ import java.util.Set;
 public class FileArchiver {
     public enum Method { RLE, LZW, HUFFMAN }
 
+    /**
+     * Цель выбора алгоритма пробным сжатием:
+     * SMALLEST — наименьший размер, FASTEST_DECODE — самое быстрое восстановление
+     * (среди алгоритмов, которые уменьшают данные), RATIO_PER_CPU — наибольшая степень сжатия
+     * на секунду процессорного времени сжатия и восстановления.
+     */
+    public enum Objective { SMALLEST, FASTEST_DECODE, RATIO_PER_CPU }
+
+    /** Сколько байт файла (в равномерно расположенных окнах) анализируется при автоматическом выборе алгоритма. */
+    public static final int AUTO_SAMPLE_SIZE = 1 << 16;
+    /** Размер блока по умолчанию для блочного формата архива. */
+    public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+    private static final int IO_BUFFER_SIZE = 1 << 16;
+    private static final ThreadLocal<Compressor[]> CONTEXTS =
+            ThreadLocal.withInitial(() -> new Compressor[Method.values().length]);
+
     /**
      * Получить байт-метку для алгоритма.
      */
-    private static byte methodToByte(Method method) {
+    static byte methodToByte(Method method) {
         return switch (method) {
             case RLE -> 0;
             case LZW -> 1;
@@ -29,7 +48,7 @@ public class FileArchiver {
     /**
      * Получить алгоритм по байту-метке.
      */
-    private static Method byteToMethod(byte b) {
+    static Method byteToMethod(byte b) {
         return switch (b) {
             case 0 -> Method.RLE;
             case 1 -> Method.LZW;
@@ -39,133 +58,462 @@ public class FileArchiver {
     }
 
     /**
-     * Сжимает файл выбранным методом, добавляя байт-метку алгоритма.
+     * Сжимает файл выбранным методом в блочный архив с размером блока по умолчанию.
      * @param inputPath путь к исходному файлу
      * @param outputPath путь к архиву
      * @param method выбранный алгоритм
      */
     public static void compressFile(String inputPath, String outputPath, Method method) throws IOException {
-        Compressor compressor = getCompressor(method);
-        byte[] input = readFile(inputPath);
-        byte[] output = compressor.compress(input);
-        byte[] archive = new byte[output.length + 1];
-        archive[0] = methodToByte(method);
-        System.arraycopy(output, 0, archive, 1, output.length);
-        writeFile(outputPath, archive);
+        compressFile(inputPath, outputPath, method, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Сжимает файл выбранным методом в блочный архив.
+     * Блоки сжимаются параллельно на всех ядрах, файл не загружается в память целиком.
+     * @param inputPath путь к исходному файлу
+     * @param outputPath путь к архиву
+     * @param method выбранный алгоритм
+     * @param blockSize размер блока в байтах (от 64 КБ до 64 МБ)
+     */
+    public static void compressFile(String inputPath, String outputPath, Method method, int blockSize) throws IOException {
+        BlockArchive.compress(Path.of(inputPath), Path.of(outputPath), method, blockSize);
     }
 
     /**
      * Автоматически выбирает оптимальный алгоритм сжатия по анализу входных данных.
      * RLE — если много длинных повторов;
      * LZW — если много повторяющихся подстрок;
-     * Huffman — если много уникальных символов.
+     * Huffman — в остальных случаях.
+     * Анализируются не больше {@link #AUTO_SAMPLE_SIZE} байт в равномерно расположенных окнах,
+     * поэтому время выбора не зависит от размера данных.
      * @param data исходные данные
      * @return выбранный метод
      */
     public static Method autoSelectMethod(byte[] data) {
-        // Оценка для RLE: максимальная длина повторов
-        int maxRun = 1, curRun = 1;
-        for (int i = 1; i < data.length; i++) {
-            if (data[i] == data[i-1]) curRun++;
-            else curRun = 1;
-            if (curRun > maxRun) maxRun = curRun;
+        return SampleAnalyzer.select(data, 0, data.length);
+    }
+
+    /**
+     * Архивирует все файлы каталога (рекурсивно) в один архив-контейнер с центральным каталогом.
+     * @param inputDir архивируемый каталог
+     * @param outputPath путь к архиву
+     * @param method алгоритм сжатия; null — выбирать алгоритм для каждого файла автоматически
+     * @return количество заархивированных файлов
+     */
+    public static int compressDirectory(String inputDir, String outputPath, Method method) throws IOException {
+        return Container.compress(Path.of(inputDir), Path.of(outputPath), method).size();
+    }
+
+    /**
+     * Архивирует каталог (рекурсивно) или файл с дедупликацией: данные режутся на фрагменты
+     * по содержимому, повторяющиеся фрагменты хранятся и сжимаются один раз.
+     * @param inputPath каталог или файл
+     * @param outputPath путь к архиву
+     * @param method алгоритм сжатия; null — выбирать алгоритм для каждого сегмента автоматически
+     * @return количество заархивированных файлов
+     */
+    public static int compressDeduplicated(String inputPath, String outputPath, Method method) throws IOException {
+        return DedupArchive.compress(Path.of(inputPath), Path.of(outputPath), method).files();
+    }
+
+    /**
+     * Дописывает в архив-контейнер новые и изменившиеся файлы. Сжимаются и дописываются в конец
+     * только они, за ними пишется новый каталог; остальные данные архива не читаются.
+     * @param inputPath каталог или отдельный файл
+     * @param archivePath путь к архиву; если архива нет, он создается
+     * @param method алгоритм сжатия; null — выбирать алгоритм для каждого файла автоматически
+     * @return количество дописанных файлов
+     */
+    public static int updateArchive(String inputPath, String archivePath, Method method) throws IOException {
+        return Container.update(Path.of(inputPath), Path.of(archivePath), method).size();
+    }
+
+    /**
+     * Удаляет из архива-контейнера мертвое место, оставшееся после обновлений.
+     * @param archivePath путь к архиву
+     * @return сколько байт освобождено
+     */
+    public static long compactArchive(String archivePath) throws IOException {
+        return Container.compact(Path.of(archivePath));
+    }
+
+    /**
+     * Распаковывает все файлы архива-контейнера или архива с дедупликацией в каталог.
+     * @param archivePath путь к архиву
+     * @param outputDir каталог для восстановленных файлов
+     * @throws IOException если архив другого формата или поврежден
+     */
+    public static void extractArchive(String archivePath, String outputDir) throws IOException {
+        int tag = readTag(archivePath);
+        if (tag == Container.MAGIC) {
+            Container.extract(Path.of(archivePath), Path.of(outputDir));
+        } else if (tag == DedupArchive.MAGIC) {
+            DedupArchive.extract(Path.of(archivePath), Path.of(outputDir));
+        } else {
+            throw new IOException("Not a multi-file archive: " + archivePath);
+        }
+    }
+
+    /**
+     * Распаковывает один файл архива-контейнера, не читая остальные.
+     * @param archivePath путь к архиву
+     * @param entryPath путь файла внутри архива (с разделителем '/')
+     * @param outputPath путь к восстановленному файлу
+     * @throws IOException если архив не контейнер (у архива с дедупликацией нет извлечения
+     *                     одного файла) или поврежден
+     */
+    public static void extractEntry(String archivePath, String entryPath, String outputPath) throws IOException {
+        int tag = readTag(archivePath);
+        if (tag == DedupArchive.MAGIC) {
+            throw new IOException("Single-entry extraction is not supported for dedup archives: " + archivePath);
         }
-        // Оценка для Huffman: количество уникальных символов
-        Set<Byte> unique = new HashSet<>();
-        for (byte b : data) unique.add(b);
-        // Оценка для LZW: количество уникальных подстрок длины 3
-        Set<String> substrings = new HashSet<>();
-        for (int i = 0; i < data.length - 2; i++) {
-            substrings.add(new String(data, i, 3));
+        if (tag != Container.MAGIC) throw new IOException("Not a container archive: " + archivePath);
+        Container.extract(Path.of(archivePath), entryPath, Path.of(outputPath));
+    }
+
+    /**
+     * Возвращает пути файлов архива-контейнера или архива с дедупликацией в порядке записи.
+     * @param archivePath путь к архиву
+     * @throws IOException если архив другого формата или поврежден
+     */
+    public static List<String> listArchive(String archivePath) throws IOException {
+        int tag = readTag(archivePath);
+        if (tag == DedupArchive.MAGIC) {
+            return DedupArchive.list(Path.of(archivePath)).stream().map(DedupArchive.FileEntry::path).toList();
         }
-        // Простая эвристика
-        if (maxRun > 10) return Method.RLE;
-        if (substrings.size() < data.length / 2) return Method.LZW;
-        return Method.HUFFMAN;
+        if (tag != Container.MAGIC) throw new IOException("Not a multi-file archive: " + archivePath);
+        try (FileChannel ch = FileChannel.open(Path.of(archivePath), StandardOpenOption.READ)) {
+            return Container.readDirectory(ch).stream().map(Container.Entry::path).toList();
+        }
+    }
+
+    /**
+     * Сжимает много файлов за один запуск: каждый файл — в свой блочный архив в outputDir.
+     * Чтение и запись файлов идут в виртуальных потоках, сжатие — в пуле потоков по числу ядер.
+     * @param inputs файлы, каталоги, шаблоны glob или файлы-манифесты с префиксом '@'
+     * @param outputDir каталог для архивов (имя архива — относительный путь файла с суффиксом .arc)
+     * @param method алгоритм сжатия; null — выбирать алгоритм для каждого блока автоматически
+     * @param blockSize размер блока в байтах
+     * @return количество сжатых файлов
+     */
+    public static int compressBatch(List<String> inputs, String outputDir, Method method, int blockSize) throws IOException {
+        return Batch.run(Batch.collect(inputs, Path.of(outputDir)), method, blockSize);
+    }
+
+    /**
+     * Сжимает файл в блочный архив, выбирая алгоритм для каждого блока отдельно по его
+     * содержимому: например, области заполнения нулями достаются RLE, а текст — LZW или Huffman.
+     * @param inputPath путь к исходному файлу
+     * @param outputPath путь к архиву
+     * @param blockSize размер блока в байтах
+     */
+    public static void compressFilePerBlock(String inputPath, String outputPath, int blockSize) throws IOException {
+        BlockArchive.compress(Path.of(inputPath), Path.of(outputPath), null, blockSize);
+    }
+
+    /**
+     * Выбирает алгоритм пробным сжатием: несколько равномерно расположенных образцов данных
+     * сжимаются всеми алгоритмами параллельно, и по измеренным размеру и времени выбирается
+     * лучший для цели objective.
+     * @param data исходные данные
+     * @param objective цель выбора
+     * @return выбранный метод
+     */
+    public static Method trialSelectMethod(byte[] data, Objective objective) {
+        return TrialSelector.select(SampleAnalyzer.windows(data, TrialSelector.SAMPLE_COUNT, TrialSelector.SAMPLE_SIZE), objective);
     }
 
     /**
-     * Сжимает файл с автоматическим выбором алгоритма, добавляя байт-метку.
+     * Сжимает файл в блочный архив алгоритмом, выбранным пробным сжатием образцов файла.
+     * @param inputPath путь к исходному файлу
+     * @param outputPath путь к архиву
+     * @param objective цель выбора
+     * @param blockSize размер блока в байтах
+     * @return выбранный алгоритм
+     */
+    public static Method compressFileTrial(String inputPath, String outputPath, Objective objective, int blockSize) throws IOException {
+        byte[][] samples = SampleAnalyzer.windows(Path.of(inputPath), TrialSelector.SAMPLE_COUNT, TrialSelector.SAMPLE_SIZE);
+        Method method = TrialSelector.select(samples, objective);
+        compressFile(inputPath, outputPath, method, blockSize);
+        return method;
+    }
+
+    /**
+     * Сжимает файл с автоматическим выбором алгоритма в блочный архив.
      * @param inputPath путь к исходному файлу
      * @param outputPath путь к архиву
      * @return выбранный алгоритм
      */
     public static Method compressFileAuto(String inputPath, String outputPath) throws IOException {
-        byte[] input = readFile(inputPath);
-        Method method = autoSelectMethod(input);
-        Compressor compressor = getCompressor(method);
-        byte[] output = compressor.compress(input);
-        byte[] archive = new byte[output.length + 1];
-        archive[0] = methodToByte(method);
-        System.arraycopy(output, 0, archive, 1, output.length);
-        writeFile(outputPath, archive);
+        return compressFileAuto(inputPath, outputPath, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Сжимает файл с автоматическим выбором алгоритма в блочный архив.
+     * Алгоритм выбирается по окнам из всего файла общим размером {@link #AUTO_SAMPLE_SIZE} байт.
+     * @param inputPath путь к исходному файлу
+     * @param outputPath путь к архиву
+     * @param blockSize размер блока в байтах
+     * @return выбранный алгоритм
+     */
+    public static Method compressFileAuto(String inputPath, String outputPath, int blockSize) throws IOException {
+        Method method = SampleAnalyzer.select(Path.of(inputPath));
+        compressFile(inputPath, outputPath, method, blockSize);
         return method;
     }
 
     /**
-     * Восстанавливает файл из архива, определяя алгоритм по байту-метке.
+     * Восстанавливает файл из архива, определяя формат и алгоритм по первому байту.
+     * Кроме блочных архивов читаются и архивы первой версии программы (байт-метка метода
+     * и сжатые данные). Если распаковка не удалась,
+     * недописанный выходной файл удаляется.
+     * Архив-контейнер распаковывается в каталог outputPath.
      * @param inputPath путь к архиву
      * @param outputPath путь к восстановленному файлу
      */
     public static void decompressFileAuto(String inputPath, String outputPath) throws IOException {
-        byte[] archive = readFile(inputPath);
-        Method method = byteToMethod(archive[0]);
-        Compressor compressor = getCompressor(method);
-        byte[] data = Arrays.copyOfRange(archive, 1, archive.length);
-        byte[] restored = compressor.decompress(data);
-        writeFile(outputPath, restored);
+        decompress(inputPath, outputPath, null);
     }
 
     /**
      * Восстанавливает файл из архива выбранным методом (для совместимости).
+     * Блочный архив хранит метод в заголовке, поэтому для него параметр method не используется.
      * @param inputPath путь к архиву
      * @param outputPath путь к восстановленному файлу
      * @param method выбранный алгоритм
      */
     public static void decompressFile(String inputPath, String outputPath, Method method) throws IOException {
-        byte[] archive = readFile(inputPath);
-        Compressor compressor = getCompressor(method);
-        byte[] data = Arrays.copyOfRange(archive, 1, archive.length);
-        byte[] restored = compressor.decompress(data);
-        writeFile(outputPath, restored);
+        decompress(inputPath, outputPath, method);
     }
 
-    private static Compressor getCompressor(Method method) {
-        return switch (method) {
-            case RLE -> new RLECompressor();
-            case LZW -> new LZWCompressor();
-            case HUFFMAN -> new HuffmanCompressor();
-        };
+    // method == null — взять метод из байт-метки потокового архива
+    private static void decompress(String inputPath, String outputPath, Method method) throws IOException {
+        int tag = readTag(inputPath);
+        if (tag == Container.MAGIC) {
+            Container.extract(Path.of(inputPath), Path.of(outputPath));
+            return;
+        }
+        if (tag == DedupArchive.MAGIC) {
+            DedupArchive.extract(Path.of(inputPath), Path.of(outputPath));
+            return;
+        }
+        Method streamMethod = tag == BlockArchive.MAGIC ? null : method != null ? method : byteToMethod((byte) tag);
+        try {
+            if (streamMethod == null) {
+                BlockArchive.decompress(Path.of(inputPath), Path.of(outputPath));
+            } else {
+                try (OutputStream out = openOutput(outputPath)) {
+                    decompressStream(inputPath, out, streamMethod);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // Недописанный файл не должен остаться на месте восстановленного
+            Files.deleteIfExists(Path.of(outputPath));
+            throw e;
+        }
     }
 
-    private static byte[] readFile(String path) throws IOException {
-        try (FileInputStream fis = new FileInputStream(path)) {
-            return fis.readAllBytes();
+    /**
+     * Распаковывает архив первой версии программы (байт-метка метода и сжатые данные).
+     * RLE читается потоковым декодером, LZW и Хаффмен — {@link FirstVersionFormat} целиком в памяти.
+     * @param out поток для восстановленных данных
+     */
+    private static void decompressStream(String inputPath, OutputStream out, Method method) throws IOException {
+        try (InputStream in = openInput(inputPath)) {
+            if (in.read() < 0) throw new EOFException("Empty archive: " + inputPath);
+            if (method == Method.RLE) {
+                getCompressor(method).decompress(in, out);
+                return;
+            }
+            if (Files.size(Path.of(inputPath)) > Integer.MAX_VALUE - 8) {
+                throw new IOException("First-version archive too large: " + inputPath);
+            }
+            out.write(FirstVersionFormat.decode(method, in.readAllBytes()));
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupted archive: " + inputPath, e);
         }
     }
 
-    private static void writeFile(String path, byte[] data) throws IOException {
-        try (FileOutputStream fos = new FileOutputStream(path)) {
-            fos.write(data);
+    /**
+     * Проверяет целостность архива любого формата без записи результата: данные распаковываются
+     * и сверяются с контрольными суммами CRC32C (блоки блочного архива — параллельно).
+     * В архивах первой версии контрольных сумм нет, и проверяется только то, что данные
+     * распаковываются.
+     * @param archivePath путь к архиву
+     * @return длина исходных данных
+     * @throws IOException если архив поврежден
+     */
+    public static long verifyArchive(String archivePath) throws IOException {
+        int tag = readTag(archivePath);
+        if (tag == BlockArchive.MAGIC) return BlockArchive.verify(Path.of(archivePath));
+        if (tag == Container.MAGIC) return Container.verify(Path.of(archivePath));
+        if (tag == DedupArchive.MAGIC) return DedupArchive.verify(Path.of(archivePath));
+        Method method;
+        try {
+            method = byteToMethod((byte) tag);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown archive format: " + archivePath, e);
         }
+        long[] size = new long[1];
+        decompressStream(archivePath, new OutputStream() {
+            @Override
+            public void write(int b) {
+                size[0]++;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                size[0] += len;
+            }
+        }, method);
+        return size[0];
+    }
+
+    // Первый байт архива: метка метода или формата архива
+    private static int readTag(String path) throws IOException {
+        int tag;
+        try (InputStream in = new FileInputStream(path)) {
+            tag = in.read();
+        }
+        if (tag < 0) throw new EOFException("Empty archive: " + path);
+        return tag;
+    }
+
+    /**
+     * Возвращает контекст алгоритма текущего потока. У каждого потока свой экземпляр каждого
+     * алгоритма, который хранит рабочие буферы между вызовами, поэтому повторное сжатие
+     * не выделяет словари, гистограммы и буферы заново. Экземпляр нельзя передавать
+     * в другие потоки.
+     */
+    static Compressor getCompressor(Method method) {
+        Compressor[] contexts = CONTEXTS.get();
+        Compressor compressor = contexts[method.ordinal()];
+        if (compressor == null) {
+            compressor = switch (method) {
+                case RLE -> new RLECompressor();
+                case LZW -> new LZWCompressor();
+                case HUFFMAN -> new HuffmanCompressor();
+            };
+            contexts[method.ordinal()] = compressor;
+        }
+        return compressor;
+    }
+
+    /**
+     * Открывает файл для чтения: большие файлы читаются из отображенной памяти,
+     * маленькие — обычным буферизованным потоком (отображение дороже для них).
+     */
+    static InputStream openInput(String path) throws IOException {
+        File file = new File(path);
+        if (file.length() >= MappedFiles.MMAP_THRESHOLD) return MappedFiles.newInputStream(file.toPath());
+        return new BufferedInputStream(new FileInputStream(file), IO_BUFFER_SIZE);
+    }
+
+    private static OutputStream openOutput(String path) throws IOException {
+        return MappedFiles.newOutputStream(new File(path).toPath());
     }
 
     public static void main(String[] args) throws IOException {
-        if (args.length < 3) {
-            System.out.println("Usage: java FileArchiver <compress|decompress|auto> <method|auto> <input> <output>");
-            System.out.println("Methods: RLE, LZW, HUFFMAN, auto");
+        if (args.length == 2 && args[0].equalsIgnoreCase("list") && readTag(args[1]) == DedupArchive.MAGIC) {
+            // У файлов архива с дедупликацией нет своих сжатых данных и метода: они общие у сегментов
+            for (DedupArchive.FileEntry entry : DedupArchive.list(Path.of(args[1]))) {
+                System.out.println(entry.path() + "\t" + entry.size());
+            }
+            return;
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("list")) {
+            try (FileChannel ch = FileChannel.open(Path.of(args[1]), StandardOpenOption.READ)) {
+                for (Container.Entry entry : Container.readDirectory(ch)) {
+                    System.out.println(entry.path() + "\t" + entry.originalSize() + "\t" + entry.packedSize() + "\t" + entry.method());
+                }
+            }
+            return;
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("verify")) {
+            try {
+                long size = verifyArchive(args[1]);
+                System.out.println("OK " + args[1] + ": " + size + " bytes");
+            } catch (IOException e) {
+                System.out.println("FAILED " + args[1] + ": " + e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("compact")) {
+            long reclaimed = compactArchive(args[1]);
+            System.out.println("Compacted " + args[1] + ", reclaimed " + reclaimed + " bytes");
+            return;
+        }
+        if (args.length == 4 && args[0].equalsIgnoreCase("update")) {
+            // update <method|auto> <input> <archive>
+            Method method = args[1].equalsIgnoreCase("auto") ? null : Method.valueOf(args[1].toUpperCase());
+            int count = updateArchive(args[2], args[3], method);
+            System.out.println("Appended " + count + " files from " + args[2] + " to " + args[3]);
+            return;
+        }
+        if (args.length == 3 && args[0].equalsIgnoreCase("extract")) {
+            extractArchive(args[1], args[2]);
+            System.out.println("Extracted " + args[1] + " to " + args[2]);
+            return;
+        }
+        if (args.length == 4 && args[0].equalsIgnoreCase("extract")) {
+            Path target = Container.resolve(Path.of(args[2]), args[3]);
+            extractEntry(args[1], args[3], target.toString());
+            System.out.println("Extracted " + args[3] + " from " + args[1] + " to " + target);
+            return;
+        }
+        if (args.length >= 4 && args[0].equalsIgnoreCase("batch")) {
+            // batch <method|auto> <outputDir> <input...>; auto — метод выбирается для каждого блока
+            Method method = args[1].equalsIgnoreCase("auto") ? null : Method.valueOf(args[1].toUpperCase());
+            int count = compressBatch(Arrays.asList(args).subList(3, args.length), args[2], method, DEFAULT_BLOCK_SIZE);
+            System.out.println("Compressed " + count + " files to " + args[2]);
+            return;
+        }
+        if (args.length < 4) {
+            System.out.println("Usage: java FileArchiver <compress|decompress|auto> <method|auto> <input> <output> [blockSizeKB]");
+            System.out.println("       java FileArchiver extract <archive> <outputDir> [entryPath]");
+            System.out.println("       java FileArchiver update <method|auto> <inputDirOrFile> <archive>");
+            System.out.println("       java FileArchiver compact <archive>");
+            System.out.println("       java FileArchiver verify <archive>");
+            System.out.println("       java FileArchiver list <archive>");
+            System.out.println("       java FileArchiver batch <method|auto> <outputDir> <input|glob|@manifest>...");
+            System.out.println("Methods: RLE, LZW, HUFFMAN, auto, per-block, trial[:SMALLEST|FASTEST_DECODE|RATIO_PER_CPU], dedup[:METHOD]");
             return;
         }
         String action = args[0];
         String methodArg = args[1];
         String input = args[2];
         String output = args[3];
-        if (action.equalsIgnoreCase("auto") || methodArg.equalsIgnoreCase("auto")) {
-            Method selected = compressFileAuto(input, output);
+        int blockSize = args.length > 4 ? Integer.parseInt(args[4]) * 1024 : DEFAULT_BLOCK_SIZE;
+        boolean compress = action.equalsIgnoreCase("compress") || action.equalsIgnoreCase("auto");
+        if (compress && methodArg.toLowerCase().startsWith("dedup")) {
+            // dedup или dedup:метод; без метода алгоритм выбирается для каждого сегмента
+            int colon = methodArg.indexOf(':');
+            Method method = colon < 0 ? null : Method.valueOf(methodArg.substring(colon + 1).toUpperCase());
+            DedupArchive.Summary summary = DedupArchive.compress(Path.of(input), Path.of(output), method);
+            System.out.println("Archived " + summary.files() + " files from " + input + " to " + output + ": "
+                    + summary.uniqueChunks() + " of " + summary.chunks() + " chunks unique, "
+                    + summary.uniqueBytes() + " of " + summary.originalBytes() + " bytes compressed");
+        } else if (compress && Files.isDirectory(Path.of(input))) {
+            // Каталог архивируется в контейнер; auto — метод выбирается для каждого файла
+            boolean auto = action.equalsIgnoreCase("auto") || methodArg.equalsIgnoreCase("auto");
+            int count = compressDirectory(input, output, auto ? null : Method.valueOf(methodArg.toUpperCase()));
+            System.out.println("Archived " + count + " files from " + input + " to " + output);
+        } else if (compress && methodArg.equalsIgnoreCase("per-block")) {
+            compressFilePerBlock(input, output, blockSize);
+            System.out.println("Compressed " + input + " to " + output + " choosing a method per block");
+        } else if (compress && methodArg.toLowerCase().startsWith("trial")) {
+            // trial или trial:цель, по умолчанию — наименьший размер
+            int colon = methodArg.indexOf(':');
+            Objective objective = colon < 0 ? Objective.SMALLEST : Objective.valueOf(methodArg.substring(colon + 1).toUpperCase());
+            Method selected = compressFileTrial(input, output, objective, blockSize);
+            System.out.println("Trial-selected method (" + objective + "): " + selected);
+        } else if (compress && (action.equalsIgnoreCase("auto") || methodArg.equalsIgnoreCase("auto"))) {
+            Method selected = compressFileAuto(input, output, blockSize);
             System.out.println("Auto-selected method: " + selected);
-        } else if (action.equalsIgnoreCase("compress")) {
+        } else if (compress) {
             Method method = Method.valueOf(methodArg.toUpperCase());
-            compressFile(input, output, method);
+            compressFile(input, output, method, blockSize);
             System.out.println("Compressed " + input + " to " + output + " using " + method);
         } else if (action.equalsIgnoreCase("decompress")) {
             // Если метод не указан, используем автоматическую разархивацию
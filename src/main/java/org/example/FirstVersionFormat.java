@@ -0,0 +1,169 @@
+package org.example;
+
+import org.example.FileArchiver.Method;
+
+import java.util.Arrays;
+
+/**
+ * Чтение архивов первой версии программы: байт-метка метода, за ней весь файл, сжатый
+ * одним вызовом {@code compress(byte[])} без деления на блоки. Формат RLE с тех пор
+ * не менялся и читается обычным потоковым декодером, а LZW и Хаффмен писали иначе:
+ * <pre>
+ *   LZW:     коды по 2 байта (старший первым), словарь растет без ограничения и сброса
+ *   Хаффмен: [длина дерева: 4 байта][дерево в прямом обходе: 0 — узел, 1 и символ — лист]
+ *            [длина кода: 4 байта][биты кода, старшие первыми][длина исходных данных: 4 байта]
+ * </pre>
+ * Такие архивы распаковываются только целиком в памяти, как и записывались.
+ */
+final class FirstVersionFormat {
+    // Дерево над 256 символами содержит не больше 511 узлов
+    private static final int MAX_TREE_NODES = 2 * 256 - 1;
+
+    private FirstVersionFormat() {
+    }
+
+    /**
+     * Восстанавливает данные архива первой версии.
+     * @param method метод из байт-метки (LZW или HUFFMAN)
+     * @param packed сжатые данные без байт-метки
+     * @return восстановленные данные
+     * @throws IllegalArgumentException если данные не являются архивом первой версии
+     */
+    static byte[] decode(Method method, byte[] packed) {
+        return switch (method) {
+            case LZW -> decodeLzw(packed);
+            case HUFFMAN -> decodeHuffman(packed);
+            case RLE -> throw new IllegalArgumentException("RLE format has not changed");
+        };
+    }
+
+    /**
+     * Словарь хранится как префиксное дерево: у каждой фразы код префикса, последний байт
+     * и длина, так что фраза выписывается с конца за время, пропорциональное ее длине.
+     */
+    private static byte[] decodeLzw(byte[] packed) {
+        if (packed.length % 2 != 0) throw new IllegalArgumentException("Odd LZW code stream");
+        int codes = packed.length / 2;
+        if (codes == 0) return new byte[0];
+        int capacity = 256 + codes;
+        int[] prefix = new int[capacity];
+        byte[] suffix = new byte[capacity];
+        int[] length = new int[capacity];
+        for (int i = 0; i < 256; i++) {
+            suffix[i] = (byte) i;
+            length[i] = 1;
+        }
+        int size = 256;
+        byte[] out = new byte[Math.max(16, packed.length)];
+        int o = 0;
+        int previous = -1;
+        for (int i = 0; i < codes; i++) {
+            int code = (packed[2 * i] & 0xFF) << 8 | packed[2 * i + 1] & 0xFF;
+            int entry;
+            if (previous < 0) {
+                if (code >= 256) throw new IllegalArgumentException("Bad LZW code: " + code);
+                entry = code;
+            } else if (code < size) {
+                entry = code;
+            } else if (code == size) {
+                // Фраза, которая только что добавляется: предыдущая плюс ее первый байт
+                entry = -1;
+            } else {
+                throw new IllegalArgumentException("Bad LZW code: " + code);
+            }
+            int phrase = entry >= 0 ? length[entry] : length[previous] + 1;
+            if (o + phrase > out.length) {
+                long grown = Math.max(2L * out.length, (long) o + phrase);
+                if ((long) o + phrase > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("LZW output too large");
+                out = Arrays.copyOf(out, (int) Math.min(grown, Integer.MAX_VALUE - 8));
+            }
+            if (entry >= 0) {
+                writePhrase(entry, prefix, suffix, length, out, o);
+            } else {
+                writePhrase(previous, prefix, suffix, length, out, o);
+                out[o + phrase - 1] = out[o];
+            }
+            if (previous >= 0) {
+                prefix[size] = previous;
+                suffix[size] = out[o];
+                length[size] = length[previous] + 1;
+                size++;
+            }
+            o += phrase;
+            previous = entry >= 0 ? entry : size - 1;
+        }
+        return o == out.length ? out : Arrays.copyOf(out, o);
+    }
+
+    private static void writePhrase(int code, int[] prefix, byte[] suffix, int[] length, byte[] out, int o) {
+        for (int i = o + length[code] - 1; i >= o; i--) {
+            out[i] = suffix[code];
+            code = prefix[code];
+        }
+    }
+
+    private static byte[] decodeHuffman(byte[] packed) {
+        int treeLen = readInt(packed, 0);
+        if (treeLen <= 0 || treeLen > 2 * MAX_TREE_NODES || packed.length < 4L + treeLen + 8)
+            throw new IllegalArgumentException("Bad Huffman tree length: " + treeLen);
+        // Узлы: left/right — индексы детей, у листа left = -1, символ в symbol
+        int[] left = new int[MAX_TREE_NODES];
+        int[] right = new int[MAX_TREE_NODES];
+        byte[] symbol = new byte[MAX_TREE_NODES];
+        int[] state = {4, 0};
+        readNode(packed, 4 + treeLen, state, left, right, symbol, 0);
+        if (state[0] != 4 + treeLen) throw new IllegalArgumentException("Bad Huffman tree");
+        // Дерево из одного листа первая версия записывала, но сама прочитать не могла
+        if (left[0] < 0) throw new IllegalArgumentException("Single-leaf Huffman tree");
+        int offset = 4 + treeLen;
+        int encodedLen = readInt(packed, offset);
+        offset += 4;
+        if (encodedLen < 0 || encodedLen != packed.length - offset - 4)
+            throw new IllegalArgumentException("Bad Huffman code length: " + encodedLen);
+        int originalLen = readInt(packed, offset + encodedLen);
+        // Каждый символ занимает хотя бы один бит
+        if (originalLen < 0 || originalLen > 8L * encodedLen)
+            throw new IllegalArgumentException("Bad Huffman data length: " + originalLen);
+        byte[] out = new byte[originalLen];
+        int o = 0;
+        int node = 0;
+        for (int i = offset; i < offset + encodedLen && o < originalLen; i++) {
+            int b = packed[i];
+            for (int bit = 7; bit >= 0 && o < originalLen; bit--) {
+                node = (b >> bit & 1) == 0 ? left[node] : right[node];
+                if (left[node] < 0) {
+                    out[o++] = symbol[node];
+                    node = 0;
+                }
+            }
+        }
+        if (o != originalLen) throw new IllegalArgumentException("Expected " + originalLen + " bytes, got " + o);
+        return out;
+    }
+
+    /**
+     * Разбирает узел дерева в прямом обходе. state[0] — позиция в packed, state[1] — число узлов.
+     * Глубина рекурсии ограничена числом узлов.
+     */
+    private static int readNode(byte[] packed, int end, int[] state, int[] left, int[] right, byte[] symbol, int depth) {
+        if (state[0] >= end || state[1] == MAX_TREE_NODES || depth > 256) throw new IllegalArgumentException("Bad Huffman tree");
+        int node = state[1]++;
+        byte flag = packed[state[0]++];
+        if (flag == 1) {
+            if (state[0] >= end) throw new IllegalArgumentException("Bad Huffman tree");
+            left[node] = -1;
+            symbol[node] = packed[state[0]++];
+        } else if (flag == 0) {
+            left[node] = readNode(packed, end, state, left, right, symbol, depth + 1);
+            right[node] = readNode(packed, end, state, left, right, symbol, depth + 1);
+        } else {
+            throw new IllegalArgumentException("Bad Huffman tree");
+        }
+        return node;
+    }
+
+    private static int readInt(byte[] buf, int off) {
+        if (off + 4 > buf.length) throw new IllegalArgumentException("Truncated first version archive");
+        return (buf[off] & 0xFF) << 24 | (buf[off + 1] & 0xFF) << 16 | (buf[off + 2] & 0xFF) << 8 | buf[off + 3] & 0xFF;
+    }
+}
@@ -0,0 +1,237 @@
+package org.example;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Ввод-вывод больших файлов через {@link FileChannel}.
+ * Чтение идет из отображенной в память области файла (страничный кэш ОС),
+ * запись — позиционная, без промежуточного буферизованного потока.
+ * Файл отображается окнами, поэтому размер файла не ограничен 2 ГБ.
+ */
+final class MappedFiles {
+    /** Размер одного отображаемого окна. */
+    static final int WINDOW_SIZE = 1 << 28;
+    /** Файлы от этого размера читаются через FileChannel.map, меньшие дешевле прочитать в кучу. */
+    static final long MMAP_THRESHOLD = 4L << 20;
+    private static final int WRITE_BUFFER_SIZE = 1 << 16;
+
+    private MappedFiles() {
+    }
+
+    /**
+     * Отображает фрагмент файла в память только для чтения.
+     * @param channel канал файла
+     * @param position начало фрагмента
+     * @param size длина фрагмента (не больше Integer.MAX_VALUE)
+     * @return отображенный буфер
+     */
+    static MappedByteBuffer map(FileChannel channel, long position, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+    }
+
+    /**
+     * Возвращает фрагмент файла: отображенный, если файл большой, иначе прочитанный в кучу.
+     * @param channel канал файла
+     * @param position начало фрагмента
+     * @param size длина фрагмента
+     * @return буфер с данными фрагмента (position = 0, limit = size)
+     */
+    static ByteBuffer read(FileChannel channel, long position, int size) throws IOException {
+        if (channel.size() >= MMAP_THRESHOLD) return map(channel, position, size);
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        readFully(channel, buffer, position);
+        return buffer.flip();
+    }
+
+    /**
+     * Записывает буфер целиком начиная с заданной позиции файла.
+     * Позиция канала не меняется, поэтому метод можно вызывать из нескольких потоков.
+     * @param channel канал файла
+     * @param buffer данные
+     * @param position позиция в файле
+     */
+    static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    /**
+     * Читает фрагмент файла целиком в буфер начиная с заданной позиции файла.
+     * @param channel канал файла
+     * @param buffer буфер, заполняется до limit
+     * @param position позиция в файле
+     */
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) throw new EOFException("Unexpected end of file at " + position);
+            position += n;
+        }
+    }
+
+    /**
+     * Открывает поток чтения файла, который читает данные из отображенных окон.
+     * @param path путь к файлу
+     * @return поток; закрытие потока закрывает канал
+     */
+    static InputStream newInputStream(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        return new MappedInputStream(channel, 0, channel.size(), true);
+    }
+
+    /**
+     * Открывает поток чтения фрагмента файла: отображаются только окна внутри фрагмента.
+     * @param channel канал файла; закрытие потока его не закрывает
+     * @param position начало фрагмента
+     * @param size длина фрагмента
+     * @return поток
+     */
+    static InputStream newInputStream(FileChannel channel, long position, long size) {
+        return new MappedInputStream(channel, position, position + size, false);
+    }
+
+    /**
+     * Открывает поток записи, который пишет в файл позиционно через канал.
+     * Файл создается или обрезается до нулевой длины.
+     * @param path путь к файлу
+     * @return поток; закрытие потока закрывает канал
+     */
+    static OutputStream newOutputStream(Path path) throws IOException {
+        return new ChannelOutputStream(FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING), 0, true);
+    }
+
+    /**
+     * Открывает поток записи в открытый канал начиная с позиции position (например, с конца файла).
+     * @param channel канал файла; закрытие потока его не закрывает
+     * @param position позиция первого записываемого байта
+     * @return поток
+     */
+    static OutputStream newOutputStream(FileChannel channel, long position) {
+        return new ChannelOutputStream(channel, position, false);
+    }
+
+    private static final class MappedInputStream extends InputStream {
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+        private final boolean closeChannel;
+        private long windowStart;
+        private MappedByteBuffer window;
+
+        MappedInputStream(FileChannel channel, long start, long end, boolean closeChannel) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+            this.closeChannel = closeChannel;
+        }
+
+        // Переходит к следующему окну, если текущее прочитано; false — конец фрагмента
+        private boolean ensureWindow() throws IOException {
+            if (window != null && window.hasRemaining()) return true;
+            long next = window == null ? start : windowStart + window.capacity();
+            if (next >= end) return false;
+            windowStart = next;
+            window = map(channel, next, Math.min(WINDOW_SIZE, end - next));
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return ensureWindow() ? window.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!ensureWindow()) return -1;
+            int n = Math.min(len, window.remaining());
+            window.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            if (n <= 0 || !ensureWindow()) return 0;
+            int step = (int) Math.min(n, window.remaining());
+            window.position(window.position() + step);
+            return step;
+        }
+
+        @Override
+        public int available() {
+            return window == null ? (int) Math.min(Integer.MAX_VALUE, end - start)
+                    : (int) Math.min(Integer.MAX_VALUE, end - windowStart - window.position());
+        }
+
+        @Override
+        public void close() throws IOException {
+            window = null;
+            if (closeChannel) channel.close();
+        }
+    }
+
+    private static final class ChannelOutputStream extends OutputStream {
+        private final FileChannel channel;
+        private final boolean closeChannel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+        private long position;
+
+        ChannelOutputStream(FileChannel channel, long position, boolean closeChannel) {
+            this.channel = channel;
+            this.position = position;
+            this.closeChannel = closeChannel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) flushBuffer();
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len >= buffer.capacity()) {
+                // Большие куски пишутся сразу, минуя буфер
+                flushBuffer();
+                ByteBuffer chunk = ByteBuffer.wrap(b, off, len);
+                writeFully(channel, chunk, position);
+                position += len;
+                return;
+            }
+            if (len > buffer.remaining()) flushBuffer();
+            buffer.put(b, off, len);
+        }
+
+        private void flushBuffer() throws IOException {
+            buffer.flip();
+            int n = buffer.remaining();
+            writeFully(channel, buffer, position);
+            position += n;
+            buffer.clear();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            flushBuffer();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flushBuffer();
+            } finally {
+                if (closeChannel) channel.close();
+            }
+        }
+    }
+}
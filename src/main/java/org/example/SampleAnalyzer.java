@@ -0,0 +1,132 @@
+package org.example;
+
+import org.example.FileArchiver.Method;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Выбор алгоритма по выборке из данных: анализируется фиксированное число равномерно
+ * расположенных окон, поэтому стоимость выбора не зависит от размера файла.
+ * <p>
+ * По окнам считаются самый длинный повтор байта и оценка числа различных подстрок длины 3.
+ * Подстрока хранится скользящим 24-битным значением, ее хеш отмечается в битовом множестве,
+ * а число различных подстрок оценивается по доле пустых битов (линейный подсчет):
+ * n ≈ -m·ln(пустые / m).
+ */
+final class SampleAnalyzer {
+    static final int WINDOW_COUNT = 16;
+    static final int WINDOW_SIZE = FileArchiver.AUTO_SAMPLE_SIZE / WINDOW_COUNT;
+    private static final int SKETCH_BITS = 18;
+
+    private int maxRun = 1;
+    private long trigramPositions;
+    private final long[] sketch = new long[(1 << SKETCH_BITS) / 64];
+
+    private SampleAnalyzer() {
+    }
+
+    /**
+     * Выбирает алгоритм по окнам из массива.
+     */
+    static Method select(byte[] data, int off, int len) {
+        SampleAnalyzer analyzer = new SampleAnalyzer();
+        if (len <= FileArchiver.AUTO_SAMPLE_SIZE) {
+            analyzer.add(data, off, off + len);
+        } else {
+            long step = (long) (len - WINDOW_SIZE) / (WINDOW_COUNT - 1);
+            for (int w = 0; w < WINDOW_COUNT; w++) {
+                int from = off + (int) (w * step);
+                analyzer.add(data, from, from + WINDOW_SIZE);
+            }
+        }
+        return analyzer.choose();
+    }
+
+    /**
+     * Выбирает алгоритм по окнам файла; читаются только сами окна.
+     */
+    static Method select(Path file) throws IOException {
+        SampleAnalyzer analyzer = new SampleAnalyzer();
+        for (byte[] window : windows(file, WINDOW_COUNT, WINDOW_SIZE)) analyzer.add(window, 0, window.length);
+        return analyzer.choose();
+    }
+
+    /**
+     * Читает из файла count равномерно расположенных окон по size байт (первое в начале файла,
+     * последнее в конце). Файл не больше count * size байт возвращается одним окном целиком.
+     */
+    static byte[][] windows(Path file, int count, int size) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = ch.size();
+            if (fileSize <= (long) count * size) {
+                ByteBuffer buf = ByteBuffer.allocate((int) fileSize);
+                MappedFiles.readFully(ch, buf, 0);
+                return new byte[][]{buf.array()};
+            }
+            long step = (fileSize - size) / (count - 1);
+            byte[][] windows = new byte[count][];
+            for (int w = 0; w < count; w++) {
+                ByteBuffer buf = ByteBuffer.allocate(size);
+                MappedFiles.readFully(ch, buf, w * step);
+                windows[w] = buf.array();
+            }
+            return windows;
+        }
+    }
+
+    /**
+     * То же для массива: окна копируются из data.
+     */
+    static byte[][] windows(byte[] data, int count, int size) {
+        if (data.length <= (long) count * size) return new byte[][]{data};
+        long step = (long) (data.length - size) / (count - 1);
+        byte[][] windows = new byte[count][];
+        for (int w = 0; w < count; w++) {
+            int from = (int) (w * step);
+            windows[w] = Arrays.copyOfRange(data, from, from + size);
+        }
+        return windows;
+    }
+
+    private void add(byte[] data, int from, int end) {
+        int run = 1;
+        int trigram = 0;
+        for (int i = from; i < end; i++) {
+            int b = data[i] & 0xFF;
+            if (i > from && data[i] == data[i - 1]) {
+                if (++run > maxRun) maxRun = run;
+            } else {
+                run = 1;
+            }
+            trigram = (trigram << 8 | b) & 0xFFFFFF;
+            if (i - from >= 2) {
+                int h = (trigram * 0x9E3779B1) >>> (32 - SKETCH_BITS);
+                sketch[h >>> 6] |= 1L << h;
+                trigramPositions++;
+            }
+        }
+    }
+
+    private long distinctTrigrams() {
+        int m = 1 << SKETCH_BITS;
+        int empty = m;
+        for (long word : sketch) empty -= Long.bitCount(word);
+        if (empty == 0) return trigramPositions;
+        return Math.round(-m * Math.log((double) empty / m));
+    }
+
+    /**
+     * RLE — если есть длинные повторы; LZW — если подстрок длины 3 мало по сравнению с числом
+     * позиций (данные повторяются); иначе Huffman.
+     */
+    private Method choose() {
+        if (maxRun > 10) return Method.RLE;
+        if (distinctTrigrams() < trigramPositions / 2) return Method.LZW;
+        return Method.HUFFMAN;
+    }
+}
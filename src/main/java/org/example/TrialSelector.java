@@ -0,0 +1,112 @@
+package org.example;
+
+import org.example.FileArchiver.Method;
+import org.example.FileArchiver.Objective;
+import org.example.compression.Compressor;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Выбор алгоритма пробным сжатием: несколько образцов из данных сжимаются и восстанавливаются
+ * каждым алгоритмом (по задаче на алгоритм, задачи идут параллельно), после чего алгоритм
+ * выбирается по измеренным размеру и времени согласно цели {@link Objective}.
+ * <p>
+ * Время меряется процессорное время потока, а не настенное: задачи идут одновременно
+ * и делят ядра, поэтому настенное время одной задачи зависит от соседних.
+ */
+final class TrialSelector {
+    static final int SAMPLE_COUNT = 4;
+    static final int SAMPLE_SIZE = 1 << 16;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    /**
+     * Результат пробы одного алгоритма на всех образцах.
+     * @param originalBytes суммарный размер образцов
+     * @param compressedBytes суммарный размер сжатых образцов
+     * @param compressNanos время сжатия
+     * @param decompressNanos время восстановления
+     */
+    record Trial(Method method, long originalBytes, long compressedBytes, long compressNanos, long decompressNanos) {
+        double ratio() {
+            return (double) originalBytes / Math.max(1, compressedBytes);
+        }
+
+        double ratioPerCpuSecond() {
+            return ratio() / (Math.max(1, compressNanos + decompressNanos) / 1e9);
+        }
+    }
+
+    private TrialSelector() {
+    }
+
+    static Method select(byte[][] samples, Objective objective) {
+        return choose(run(samples), objective);
+    }
+
+    /**
+     * Пробует все алгоритмы на образцах параллельно в общем пуле.
+     */
+    static List<Trial> run(byte[][] samples) {
+        List<ForkJoinTask<Trial>> tasks = new ArrayList<>();
+        for (Method method : Method.values())
+            tasks.add(ForkJoinPool.commonPool().submit(() -> trial(method, samples)));
+        List<Trial> trials = new ArrayList<>(tasks.size());
+        for (ForkJoinTask<Trial> task : tasks) trials.add(task.join());
+        return trials;
+    }
+
+    private static Trial trial(Method method, byte[][] samples) {
+        Compressor compressor = FileArchiver.getCompressor(method);
+        long original = 0, compressed = 0, compressNanos = 0, decompressNanos = 0;
+        for (byte[] sample : samples) {
+            byte[] dst = new byte[compressor.maxCompressedLength(sample.length)];
+            long t0 = cpuTime();
+            int length = compressor.compress(sample, 0, sample.length, dst, 0);
+            long t1 = cpuTime();
+            byte[] restored = compressor.decompress(dst, 0, length);
+            long t2 = cpuTime();
+            if (!Arrays.equals(sample, restored)) throw new IllegalStateException(method + " failed round trip");
+            original += sample.length;
+            compressed += length;
+            compressNanos += t1 - t0;
+            decompressNanos += t2 - t1;
+        }
+        return new Trial(method, original, compressed, compressNanos, decompressNanos);
+    }
+
+    /**
+     * Выбирает алгоритм по цели. Для {@link Objective#FASTEST_DECODE} рассматриваются только
+     * алгоритмы, которые действительно уменьшили данные; если таких нет, берется самый компактный.
+     */
+    static Method choose(List<Trial> trials, Objective objective) {
+        Trial best = null;
+        for (Trial trial : trials) {
+            if (best == null || better(trial, best, objective)) best = trial;
+        }
+        return best.method();
+    }
+
+    private static boolean better(Trial a, Trial b, Objective objective) {
+        return switch (objective) {
+            case SMALLEST -> a.compressedBytes() < b.compressedBytes();
+            case FASTEST_DECODE -> {
+                boolean aShrinks = a.compressedBytes() < a.originalBytes();
+                boolean bShrinks = b.compressedBytes() < b.originalBytes();
+                if (aShrinks != bShrinks) yield aShrinks;
+                yield aShrinks ? a.decompressNanos() < b.decompressNanos() : a.compressedBytes() < b.compressedBytes();
+            }
+            case RATIO_PER_CPU -> a.ratioPerCpuSecond() > b.ratioPerCpuSecond();
+        };
+    }
+
+    private static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+}
@@ -0,0 +1,108 @@
+package org.example.compression;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Потоковая обертка для алгоритмов, которым нужен весь вход сразу (Хаффмен, LZW).
+ * Вход режется на блоки фиксированного размера, каждый блок сжимается независимо.
+ * Формат потока: последовательность [длина исходного блока][длина сжатого блока][данные].
+ */
+final class BlockStreams {
+    private static final int HEADER_SIZE = 8;
+    private static final byte[] EMPTY = new byte[0];
+
+    /**
+     * Буферы блоков, которые алгоритм хранит между вызовами; растут по мере надобности.
+     */
+    static final class Buffers {
+        private byte[] block = EMPTY;
+        private byte[] packed = EMPTY;
+
+        private byte[] block(int size) {
+            if (block.length < size) block = new byte[size];
+            return block;
+        }
+
+        private byte[] packed(int size) {
+            if (packed.length < size) packed = new byte[size];
+            return packed;
+        }
+
+        void release() {
+            block = EMPTY;
+            packed = EMPTY;
+        }
+    }
+
+    private BlockStreams() {
+    }
+
+    /**
+     * Сжимает поток поблочно.
+     * @param compressor алгоритм для сжатия одного блока
+     * @param in исходные данные
+     * @param out поток для сжатых данных
+     * @param blockSize размер блока исходных данных
+     * @param buffers буферы алгоритма
+     */
+    static void compress(Compressor compressor, InputStream in, OutputStream out, int blockSize, Buffers buffers) throws IOException {
+        byte[] block = buffers.block(blockSize);
+        // Сжатый блок пишется сразу после зарезервированного заголовка, чтобы отдать его одним write
+        byte[] packed = buffers.packed(HEADER_SIZE + compressor.maxCompressedLength(blockSize));
+        int n;
+        while ((n = in.readNBytes(block, 0, blockSize)) > 0) {
+            int packedLen = compressor.compress(block, 0, n, packed, HEADER_SIZE);
+            writeInt(packed, 0, n);
+            writeInt(packed, 4, packedLen);
+            out.write(packed, 0, HEADER_SIZE + packedLen);
+        }
+        out.flush();
+    }
+
+    /**
+     * Восстанавливает поток, записанный методом {@link #compress}.
+     * @param compressor алгоритм для восстановления одного блока
+     * @param in сжатые данные
+     * @param out поток для восстановленных данных
+     * @param blockSize размер блока, с которым поток был записан; длиннее блок быть не может
+     * @param buffers буферы алгоритма
+     */
+    static void decompress(Compressor compressor, InputStream in, OutputStream out, int blockSize, Buffers buffers) throws IOException {
+        byte[] header = new byte[HEADER_SIZE];
+        byte[] packed = buffers.packed(0);
+        int n;
+        while ((n = in.readNBytes(header, 0, HEADER_SIZE)) > 0) {
+            if (n < HEADER_SIZE) throw new EOFException("Truncated block header");
+            int originalLen = readInt(header, 0);
+            int packedLen = readInt(header, 4);
+            if (originalLen < 0 || originalLen > blockSize
+                    || packedLen < 0 || packedLen > compressor.maxCompressedLength(originalLen))
+                throw new IOException("Corrupted block header");
+            if (packed.length < packedLen) packed = buffers.packed(packedLen);
+            if (in.readNBytes(packed, 0, packedLen) < packedLen) throw new EOFException("Truncated block");
+            byte[] restored;
+            try {
+                restored = compressor.decompress(packed, 0, packedLen, originalLen);
+            } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                throw new IOException("Corrupted block", e);
+            }
+            out.write(restored);
+        }
+        out.flush();
+    }
+
+    static void writeInt(byte[] buf, int off, int v) {
+        buf[off] = (byte) (v >>> 24);
+        buf[off + 1] = (byte) (v >>> 16);
+        buf[off + 2] = (byte) (v >>> 8);
+        buf[off + 3] = (byte) v;
+    }
+
+    static int readInt(byte[] buf, int off) {
+        return ((buf[off] & 0xFF) << 24) | ((buf[off + 1] & 0xFF) << 16)
+                | ((buf[off + 2] & 0xFF) << 8) | (buf[off + 3] & 0xFF);
+    }
+}
@@ -1,21 +1,174 @@
 package org.example.compression;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
 /**
  * Интерфейс для алгоритмов сжатия и восстановления данных.
- * Реализует методы compress и decompress для работы с байтовыми массивами.
+ * Реализует методы compress и decompress для работы с байтовыми массивами
+ * и их потоковые варианты для файлов, которые не помещаются в память целиком.
+ * Перегрузки со смещением и {@link ByteBuffer} позволяют сжимать в заранее выделенный
+ * буфер (например, с зарезервированным местом под заголовок) без лишних копий.
+ * <p>
+ * Экземпляр алгоритма — это контекст сжатия: он хранит рабочие буферы (словари, гистограммы,
+ * таблицы, буферы потоков) между вызовами, чтобы не выделять их заново. Поэтому экземпляр
+ * нельзя использовать из нескольких потоков одновременно; для многопоточной работы нужен
+ * свой экземпляр на поток.
  */
 public interface Compressor {
+    /**
+     * Верхняя граница размера сжатых данных для входа заданной длины.
+     * @param length длина исходных данных
+     * @return максимальная длина результата {@link #compress(byte[], int, int, byte[], int)}
+     * @throws IllegalArgumentException если граница не помещается в массив
+     */
+    int maxCompressedLength(int length);
+
+    /**
+     * Сбрасывает контекст: освобождает рабочие буферы, накопленные предыдущими вызовами.
+     * Следующий вызов выделит их заново.
+     */
+    default void reset() {
+    }
+
+    /**
+     * Сжимает фрагмент массива в заранее выделенный буфер.
+     * В dst начиная с dstOff должно быть не меньше {@link #maxCompressedLength(int)} байт.
+     * @param src исходные данные
+     * @param srcOff смещение исходных данных
+     * @param srcLen длина исходных данных
+     * @param dst буфер для сжатых данных
+     * @param dstOff смещение в буфере
+     * @return количество записанных байт
+     */
+    int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff);
+
+    /**
+     * Восстанавливает данные из фрагмента массива.
+     * @param src сжатые данные
+     * @param off смещение сжатых данных
+     * @param len длина сжатых данных
+     * @return восстановленные данные
+     */
+    byte[] decompress(byte[] src, int off, int len);
+
+    /**
+     * Восстанавливает данные, длина которых известна заранее (например, из индекса архива).
+     * Алгоритмы, записывающие длину в заголовок, сверяют ее до выделения памяти, поэтому
+     * поврежденный заголовок не приводит к выделению массива огромного размера.
+     * @param expectedLength ожидаемая длина восстановленных данных
+     * @throws IllegalArgumentException если данные повреждены или их длина не совпадает с ожидаемой
+     */
+    default byte[] decompress(byte[] src, int off, int len, int expectedLength) {
+        byte[] restored = decompress(src, off, len);
+        if (restored.length != expectedLength)
+            throw new IllegalArgumentException("Expected " + expectedLength + " bytes, got " + restored.length);
+        return restored;
+    }
+
     /**
      * Сжимает входной массив байт.
      * @param data исходные данные
      * @return сжатые данные
      */
-    byte[] compress(byte[] data);
+    default byte[] compress(byte[] data) {
+        byte[] dst = new byte[maxCompressedLength(data.length)];
+        int n = compress(data, 0, data.length, dst, 0);
+        return n == dst.length ? dst : Arrays.copyOf(dst, n);
+    }
 
     /**
      * Восстанавливает исходные данные из сжатого массива байт.
      * @param data сжатые данные
      * @return восстановленные данные
      */
-    byte[] decompress(byte[] data);
+    default byte[] decompress(byte[] data) {
+        return decompress(data, 0, data.length);
+    }
+
+    /**
+     * Сжимает оставшиеся байты src в dst (heap или direct буферы).
+     * Позиции обоих буферов сдвигаются на прочитанные и записанные байты.
+     * @param src исходные данные
+     * @param dst буфер, в котором осталось не меньше {@link #maxCompressedLength(int)} байт
+     * @return количество записанных байт
+     */
+    default int compress(ByteBuffer src, ByteBuffer dst) {
+        int len = src.remaining();
+        int bound = maxCompressedLength(len);
+        if (dst.remaining() < bound) throw new BufferOverflowException();
+        byte[] in;
+        int inOff;
+        if (src.hasArray()) {
+            in = src.array();
+            inOff = src.arrayOffset() + src.position();
+        } else {
+            in = new byte[len];
+            src.get(src.position(), in);
+            inOff = 0;
+        }
+        int written;
+        if (dst.hasArray()) {
+            written = compress(in, inOff, len, dst.array(), dst.arrayOffset() + dst.position());
+        } else {
+            byte[] out = new byte[bound];
+            written = compress(in, inOff, len, out, 0);
+            dst.put(dst.position(), out, 0, written);
+        }
+        src.position(src.position() + len);
+        dst.position(dst.position() + written);
+        return written;
+    }
+
+    /**
+     * Восстанавливает данные из оставшихся байт src (heap или direct буфер).
+     * Позиция src сдвигается до конца.
+     * @param src сжатые данные
+     * @return восстановленные данные
+     */
+    default byte[] decompress(ByteBuffer src) {
+        return decompress(src, -1);
+    }
+
+    /**
+     * То же с известной длиной результата, см. {@link #decompress(byte[], int, int, int)}.
+     * @param expectedLength ожидаемая длина; -1 — неизвестна
+     */
+    default byte[] decompress(ByteBuffer src, int expectedLength) {
+        int len = src.remaining();
+        byte[] in;
+        int off;
+        if (src.hasArray()) {
+            in = src.array();
+            off = src.arrayOffset() + src.position();
+        } else {
+            in = new byte[len];
+            src.get(src.position(), in);
+            off = 0;
+        }
+        byte[] restored = expectedLength < 0 ? decompress(in, off, len) : decompress(in, off, len, expectedLength);
+        src.position(src.position() + len);
+        return restored;
+    }
+
+    /**
+     * Потоково сжимает данные: читает in до конца и пишет результат в out.
+     * Объем используемой памяти ограничен и не зависит от размера входа.
+     * Потоки не закрываются.
+     * @param in исходные данные
+     * @param out поток для сжатых данных
+     */
+    void compress(InputStream in, OutputStream out) throws IOException;
+
+    /**
+     * Потоково восстанавливает данные, записанные методом {@link #compress(InputStream, OutputStream)}.
+     * Потоки не закрываются.
+     * @param in сжатые данные
+     * @param out поток для восстановленных данных
+     */
+    void decompress(InputStream in, OutputStream out) throws IOException;
 }
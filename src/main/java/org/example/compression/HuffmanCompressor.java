@@ -1,167 +1,522 @@
 package org.example.compression;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.*;
 
 /**
  * Реализация алгоритма Хаффмена для сжатия данных.
- * Строит оптимальное префиксное дерево на основе частот символов.
- * Дерево сериализуется вместе с данными для восстановления.
+ * Используется канонический код: вместе с данными хранятся только длины кодов символов,
+ * сами коды однозначно восстанавливаются по длинам. Длина кода ограничена (от 11 до 15 бит),
+ * поэтому декодер обходится одной таблицей на 2^длина записей.
+ * <p>
+ * Формат: [int длина исходных данных][byte режим][byte первый символ][byte последний символ]
+ * [длины кодов символов от первого до последнего по 4 бита][биты данных].
+ * Режим 0 означает, что во входе один символ, и он записан в байте первого символа.
+ * <p>
+ * Входы от 8 КБ сжимаются в режиме четырех потоков: данные делятся на четыре равные части
+ * (последняя может быть короче), каждая кодируется в свой поток битов общей таблицей.
+ * Перед потоками записаны размеры первых трех в байтах (int), четвертый занимает остаток.
+ * Декодер ведет четыре независимых чтения битов в одном цикле, и процессор выполняет
+ * их параллельно вместо одной длинной цепочки зависимостей.
  */
 public class HuffmanCompressor implements Compressor {
-    private static class Node implements Comparable<Node> {
-        final byte symbol;
-        final int freq;
-        final Node left, right;
-        Node(byte symbol, int freq, Node left, Node right) {
-            this.symbol = symbol;
-            this.freq = freq;
-            this.left = left;
-            this.right = right;
+    public static final int MIN_CODE_LENGTH_LIMIT = 11;
+    public static final int MAX_CODE_LENGTH_LIMIT = 15;
+    public static final int DEFAULT_CODE_LENGTH_LIMIT = 12;
+    private static final int STREAM_BLOCK_SIZE = 1 << 20;
+    private static final int MODE_SINGLE_SYMBOL = 0;
+    private static final int MODE_SINGLE_STREAM = 1;
+    private static final int MODE_FOUR_STREAMS = 4;
+    static final int FOUR_STREAMS_MIN_LENGTH = 8 << 10;
+    // Заголовок: длина исходных данных, режим, диапазон символов, по 4 бита на длину и размеры потоков;
+    // плюс до 3 байт выравнивания: каждый из четырех потоков дополняется до целого байта отдельно
+    private static final int MAX_HEADER_SIZE = 4 + 3 + 128 + 12 + 3;
+    private static final int ENTRY_LENGTH_MASK = 0xFF;
+    private static final int ENTRY_VALUE_SHIFT = 8;
+
+    private final int maxCodeLength;
+    // Рабочие буферы контекста: четыре гистограммы подряд и таблица декодера наибольшего размера
+    private int[] counts;
+    private int[] table;
+    private final BlockStreams.Buffers streamBuffers = new BlockStreams.Buffers();
+
+    public HuffmanCompressor() {
+        this(DEFAULT_CODE_LENGTH_LIMIT);
+    }
+
+    /**
+     * @param maxCodeLength наибольшая длина кода в битах; чем она меньше, тем меньше таблица
+     *                      декодера, но тем дальше код от оптимального на неравномерных данных
+     * @throws IllegalArgumentException если длина вне диапазона от 11 до 15
+     */
+    public HuffmanCompressor(int maxCodeLength) {
+        if (maxCodeLength < MIN_CODE_LENGTH_LIMIT || maxCodeLength > MAX_CODE_LENGTH_LIMIT)
+            throw new IllegalArgumentException("Code length limit must be between "
+                    + MIN_CODE_LENGTH_LIMIT + " and " + MAX_CODE_LENGTH_LIMIT + ": " + maxCodeLength);
+        this.maxCodeLength = maxCodeLength;
+    }
+
+    /**
+     * Длины кодов Хаффмена не длиннее limit без построения дерева из объектов. Символы сортируются
+     * по частоте, узлы сливаются двумя очередями: листья по возрастанию частоты и внутренние узлы
+     * в порядке создания (их веса тоже не убывают). Родитель всегда создается позже потомков,
+     * поэтому глубины считаются одним проходом от корня.
+     * <p>
+     * Затем считается, сколько листьев на каждой глубине. Слишком глубокие листья поднимаются
+     * на уровень limit, а получившийся избыток неравенства Крафта снимается так же, как в zlib:
+     * лист уровня limit убирается, а ближайший лист выше расщепляется на два уровнем ниже.
+     * Длины раздаются заново по возрастанию частоты: самым редким символам — самые длинные коды.
+     * @param freq частоты символов
+     * @param lengths длины кодов (0 — символ не встречается)
+     * @return количество встречающихся символов
+     */
+    private static int codeLengths(int[] freq, int limit, int[] lengths) {
+        long[] sorted = new long[256];
+        int n = 0;
+        for (int symbol = 0; symbol < 256; symbol++)
+            if (freq[symbol] > 0) sorted[n++] = (long) freq[symbol] << 8 | symbol;
+        if (n < 2) return n;
+        Arrays.sort(sorted, 0, n);
+        // Узлы 0..n-1 — листья, n..2n-2 — внутренние узлы
+        long[] weight = new long[2 * n - 1];
+        int[] parent = new int[2 * n - 1];
+        for (int i = 0; i < n; i++) weight[i] = sorted[i] >>> 8;
+        int leaf = 0, inner = n;
+        for (int node = n; node < 2 * n - 1; node++) {
+            for (int k = 0; k < 2; k++) {
+                int child = leaf < n && (inner == node || weight[leaf] <= weight[inner]) ? leaf++ : inner++;
+                weight[node] += weight[child];
+                parent[child] = node;
+            }
         }
-        boolean isLeaf() { return left == null && right == null; }
-        @Override public int compareTo(Node o) { return Integer.compare(freq, o.freq); }
+        int[] depth = new int[2 * n - 1];
+        int[] count = new int[limit + 1];
+        for (int node = 2 * n - 3; node >= 0; node--) {
+            depth[node] = depth[parent[node]] + 1;
+            if (node < n) count[Math.min(depth[node], limit)]++;
+        }
+        long kraft = 0;
+        for (int length = 1; length <= limit; length++) kraft += (long) count[length] << (limit - length);
+        for (; kraft > 1L << limit; kraft--) {
+            count[limit]--;
+            for (int length = limit - 1; length > 0; length--) {
+                if (count[length] > 0) {
+                    count[length]--;
+                    count[length + 1] += 2;
+                    break;
+                }
+            }
+        }
+        for (int i = 0, length = limit; i < n; i++) {
+            while (count[length] == 0) length--;
+            count[length]--;
+            lengths[(int) (sorted[i] & 0xFF)] = length;
+        }
+        return n;
     }
 
-    private static Map<Byte, String> buildCode(Node root) {
-        Map<Byte, String> code = new HashMap<>();
-        buildCodeRec(root, "", code);
-        return code;
+    /**
+     * Первые канонические коды каждой длины: коды одной длины идут подряд в порядке символов,
+     * а первый код следующей длины получается сдвигом за последним кодом предыдущей.
+     * @param count количество символов каждой длины
+     * @throws IllegalArgumentException если длины не образуют префиксный код
+     */
+    private static int[] firstCodes(int[] count, int maxLength) {
+        int[] first = new int[maxLength + 1];
+        int code = 0;
+        for (int length = 1; length <= maxLength; length++) {
+            code = (code + count[length - 1]) << 1;
+            first[length] = code;
+            if (code + count[length] > 1 << length) throw new IllegalArgumentException("Invalid Huffman code lengths");
+        }
+        return first;
     }
-    private static void buildCodeRec(Node node, String s, Map<Byte, String> code) {
-        if (node.isLeaf()) code.put(node.symbol, s);
-        else {
-            buildCodeRec(node.left, s + "0", code);
-            buildCodeRec(node.right, s + "1", code);
+
+    /**
+     * Гистограмма байтов. Четыре независимых счетчика (четверти массива counts) убирают
+     * зависимость между соседними инкрементами одной ячейки и дают процессору считать
+     * их параллельно. Итог — в первых 256 элементах counts.
+     */
+    private static int[] histogram(byte[] src, int from, int end, int[] counts) {
+        Arrays.fill(counts, 0);
+        int i = from;
+        for (; i + 3 < end; i += 4) {
+            counts[src[i] & 0xFF]++;
+            counts[256 + (src[i + 1] & 0xFF)]++;
+            counts[512 + (src[i + 2] & 0xFF)]++;
+            counts[768 + (src[i + 3] & 0xFF)]++;
         }
+        for (; i < end; i++) counts[src[i] & 0xFF]++;
+        for (int s = 0; s < 256; s++) counts[s] += counts[256 + s] + counts[512 + s] + counts[768 + s];
+        return counts;
     }
 
     /**
-     * Сжимает данные методом Хаффмена.
-     * @param data исходные данные
-     * @return сжатый массив байт с сериализованным деревом
+     * Код не длиннее 8 бит на символ в среднем (если ограниченный код оказывается хуже
+     * равномерного, кодер переходит на равномерный), поэтому все биты данных занимают не больше
+     * length байт. К ним добавляются заголовок и в режиме четырех потоков до 3 байт: каждый поток
+     * дополняется до целого байта, и в сумме это дает не больше трех байт сверх общего округления.
      */
     @Override
-    public byte[] compress(byte[] data) {
-        // Подсчет частот
-        Map<Byte, Integer> freq = new HashMap<>();
-        for (byte b : data) freq.put(b, freq.getOrDefault(b, 0) + 1);
-        // Построение дерева
-        PriorityQueue<Node> pq = new PriorityQueue<>();
-        for (Map.Entry<Byte, Integer> e : freq.entrySet())
-            pq.add(new Node(e.getKey(), e.getValue(), null, null));
-        while (pq.size() > 1) {
-            Node l = pq.poll(), r = pq.poll();
-            pq.add(new Node((byte)0, l.freq + r.freq, l, r));
-        }
-        Node root = pq.poll();
-        Map<Byte, String> code = buildCode(root);
-        // Кодирование
-        StringBuilder encoded = new StringBuilder();
-        for (byte b : data) encoded.append(code.get(b));
-        // Сохраняем дерево (префиксный код)
-        List<Byte> treeBytes = new ArrayList<>();
-        serializeTree(root, treeBytes);
-        byte[] treeArr = new byte[treeBytes.size()];
-        for (int i = 0; i < treeBytes.size(); i++) treeArr[i] = treeBytes.get(i);
-        // Кодируем строку в байты
-        int len = (encoded.length() + 7) / 8;
-        byte[] encodedArr = new byte[len];
-        for (int i = 0; i < encoded.length(); i++) {
-            int idx = i / 8;
-            int bit = encoded.charAt(i) == '1' ? 1 : 0;
-            encodedArr[idx] |= bit << (7 - (i % 8));
-        }
-        // Формируем итоговый массив: [длина дерева][дерево][длина данных][данные][длина исходных данных]
-        byte[] out = new byte[4 + treeArr.length + 4 + encodedArr.length + 4];
-        out[0] = (byte) ((treeArr.length >> 24) & 0xFF);
-        out[1] = (byte) ((treeArr.length >> 16) & 0xFF);
-        out[2] = (byte) ((treeArr.length >> 8) & 0xFF);
-        out[3] = (byte) (treeArr.length & 0xFF);
-        System.arraycopy(treeArr, 0, out, 4, treeArr.length);
-        int offset = 4 + treeArr.length;
-        out[offset] = (byte) ((encodedArr.length >> 24) & 0xFF);
-        out[offset+1] = (byte) ((encodedArr.length >> 16) & 0xFF);
-        out[offset+2] = (byte) ((encodedArr.length >> 8) & 0xFF);
-        out[offset+3] = (byte) (encodedArr.length & 0xFF);
-        System.arraycopy(encodedArr, 0, out, offset+4, encodedArr.length);
-        // Сохраняем длину исходных данных
-        int dataLenOffset = offset + 4 + encodedArr.length;
-        int originalLen = data.length;
-        out[dataLenOffset] = (byte) ((originalLen >> 24) & 0xFF);
-        out[dataLenOffset+1] = (byte) ((originalLen >> 16) & 0xFF);
-        out[dataLenOffset+2] = (byte) ((originalLen >> 8) & 0xFF);
-        out[dataLenOffset+3] = (byte) (originalLen & 0xFF);
-        return out;
+    public int maxCompressedLength(int length) {
+        long bound = (long) length + MAX_HEADER_SIZE;
+        if (bound > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Input too large for Huffman: " + length);
+        return (int) bound;
     }
 
-    private static void serializeTree(Node node, List<Byte> out) {
-        if (node.isLeaf()) {
-            out.add((byte)1);
-            out.add(node.symbol);
-        } else {
-            out.add((byte)0);
-            serializeTree(node.left, out);
-            serializeTree(node.right, out);
+    /**
+     * Сжимает данные методом Хаффмена прямо в буфер dst.
+     * @param src исходные данные
+     * @param srcOff смещение исходных данных
+     * @param srcLen длина исходных данных
+     * @param dst буфер для сжатых данных
+     * @param dstOff смещение в буфере
+     * @return количество записанных байт (с заголовком длин кодов)
+     */
+    @Override
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        Objects.checkFromIndexSize(srcOff, srcLen, src.length);
+        Objects.checkFromIndexSize(dstOff, maxCompressedLength(srcLen), dst.length);
+        int end = srcOff + srcLen;
+        writeInt(dst, dstOff, srcLen);
+        if (srcLen == 0) return 4;
+        if (counts == null) counts = new int[4 * 256];
+        int[] freq = histogram(src, srcOff, end, counts);
+        int[] lengths = new int[256];
+        int symbols = codeLengths(freq, maxCodeLength, lengths);
+        int o = dstOff + 4;
+        if (symbols == 1) {
+            // Единственный символ кодируется пустым кодом
+            dst[o] = MODE_SINGLE_SYMBOL;
+            dst[o + 1] = src[srcOff];
+            return 6;
+        }
+        long bits = 0;
+        for (int symbol = 0; symbol < 256; symbol++) bits += (long) freq[symbol] * lengths[symbol];
+        if (bits > 8L * srcLen) {
+            // Подъем длинных кодов испортил код сильнее равномерного: берем 8 бит на символ
+            for (int symbol = 0; symbol < 256; symbol++) if (freq[symbol] > 0) lengths[symbol] = 8;
+        }
+        int first = 0, last = 255;
+        while (lengths[first] == 0) first++;
+        while (lengths[last] == 0) last--;
+        int[] count = new int[maxCodeLength + 1];
+        for (int symbol = first; symbol <= last; symbol++) count[lengths[symbol]]++;
+        count[0] = 0;
+        boolean fourStreams = srcLen >= FOUR_STREAMS_MIN_LENGTH;
+        dst[o++] = (byte) (fourStreams ? MODE_FOUR_STREAMS : MODE_SINGLE_STREAM);
+        o = writeLengths(lengths, first, last, dst, o);
+        // Канонические коды в порядке символов
+        int[] next = firstCodes(count, maxCodeLength);
+        int[] codes = new int[256];
+        for (int symbol = first; symbol <= last; symbol++)
+            if (lengths[symbol] > 0) codes[symbol] = next[lengths[symbol]]++;
+        if (!fourStreams) return encode(src, srcOff, end, codes, lengths, dst, o) - dstOff;
+        int segment = (srcLen + 3) / 4;
+        int sizes = o;
+        o += 12;
+        for (int k = 0; k < 4; k++) {
+            int from = srcOff + k * segment;
+            int streamStart = o;
+            o = encode(src, from, Math.min(from + segment, end), codes, lengths, dst, o);
+            if (k < 3) writeInt(dst, sizes + 4 * k, o - streamStart);
+        }
+        return o - dstOff;
+    }
+
+    /**
+     * Записывает диапазон символов и их длины кодов по 4 бита (старшая половина байта первой).
+     * @return позиция в dst сразу за заголовком
+     */
+    private static int writeLengths(int[] lengths, int first, int last, byte[] dst, int o) {
+        dst[o++] = (byte) first;
+        dst[o++] = (byte) last;
+        for (int symbol = first; symbol <= last; symbol += 2) {
+            int low = symbol < last ? lengths[symbol + 1] : 0;
+            dst[o++] = (byte) (lengths[symbol] << 4 | low);
         }
+        return o;
     }
 
     /**
-     * Восстанавливает исходные данные из Хаффмен-сжатого массива.
-     * @param data сжатые данные
+     * Кодирует символы в dst старшими битами вперед через 64-битный накопитель:
+     * коды дописываются в младшие биты, каждые накопленные 32 бита сбрасываются
+     * в выход четырьмя байтами. Последний неполный байт дополняется нулями.
+     * @return позиция в dst сразу за закодированными данными
+     */
+    private static int encode(byte[] src, int from, int end, int[] codes, int[] lengths, byte[] dst, int o) {
+        long acc = 0;
+        int accBits = 0;
+        for (int i = from; i < end; i++) {
+            int symbol = src[i] & 0xFF;
+            acc = (acc << lengths[symbol]) | codes[symbol];
+            accBits += lengths[symbol];
+            if (accBits >= 32) {
+                accBits -= 32;
+                o = writeWord(dst, o, (int) (acc >>> accBits));
+            }
+        }
+        while (accBits >= 8) {
+            accBits -= 8;
+            dst[o++] = (byte) (acc >>> accBits);
+        }
+        if (accBits > 0) dst[o++] = (byte) (acc << (8 - accBits));
+        return o;
+    }
+
+    private static int writeWord(byte[] dst, int o, int word) {
+        dst[o] = (byte) (word >>> 24);
+        dst[o + 1] = (byte) (word >>> 16);
+        dst[o + 2] = (byte) (word >>> 8);
+        dst[o + 3] = (byte) word;
+        return o + 4;
+    }
+
+    /**
+     * Восстанавливает исходные данные из Хаффмен-сжатого фрагмента массива.
+     * Ограничение длины кода, с которым данные были сжаты, декодеру знать не нужно:
+     * таблица строится по наибольшей длине из заголовка.
+     * @param src сжатые данные
+     * @param off смещение сжатых данных
+     * @param len длина сжатых данных
      * @return восстановленный массив байт
      */
     @Override
-    public byte[] decompress(byte[] data) {
-        int treeLen = ((data[0] & 0xFF) << 24) | ((data[1] & 0xFF) << 16) | ((data[2] & 0xFF) << 8) | (data[3] & 0xFF);
-        int offset = 4;
-        Node root = deserializeTree(data, offset, new int[]{0}, treeLen);
-        offset += treeLen;
-        int encodedLen = ((data[offset] & 0xFF) << 24) | ((data[offset+1] & 0xFF) << 16) | ((data[offset+2] & 0xFF) << 8) | (data[offset+3] & 0xFF);
-        offset += 4;
-        byte[] encodedArr = Arrays.copyOfRange(data, offset, offset + encodedLen);
-        offset += encodedLen;
-        // Читаем длину исходных данных
-        int originalLen = ((data[offset] & 0xFF) << 24) | ((data[offset+1] & 0xFF) << 16) | ((data[offset+2] & 0xFF) << 8) | (data[offset+3] & 0xFF);
-        List<Byte> result = new ArrayList<>();
-        Node node = root;
-        int decodedSymbols = 0;
-        for (int i = 0; i < encodedArr.length * 8 && decodedSymbols < originalLen; i++) {
-            int idx = i / 8;
-            int bit = (encodedArr[idx] >> (7 - (i % 8))) & 1;
-            node = bit == 0 ? node.left : node.right;
-            if (node.isLeaf()) {
-                result.add(node.symbol);
-                node = root;
-                decodedSymbols++;
-            }
+    public byte[] decompress(byte[] src, int off, int len) {
+        return decompress(src, off, len, -1);
+    }
+
+    /**
+     * Длина из заголовка сверяется с ожидаемой до выделения массива результата, поэтому
+     * поврежденный заголовок не приводит к выделению памяти под несуществующие данные.
+     * @param expectedLength ожидаемая длина результата; -1 — неизвестна (тогда длина в режимах
+     *                       с кодами ограничена 8 символами на байт сжатых данных, а в режиме
+     *                       одного символа не ограничена: ее проверяет вызывающий, знающий размер блока)
+     * @throws IllegalArgumentException если данные повреждены или обрываются раньше,
+     *                                  чем восстановлена вся длина из заголовка
+     */
+    @Override
+    public byte[] decompress(byte[] src, int off, int len, int expectedLength) {
+        Objects.checkFromIndexSize(off, len, src.length);
+        int end = off + len;
+        if (len < 4) throw new IllegalArgumentException("Truncated Huffman header");
+        int originalLen = readInt(src, off);
+        if (originalLen < 0 || expectedLength >= 0 && originalLen != expectedLength)
+            throw new IllegalArgumentException("Bad Huffman header: length " + originalLen);
+        if (originalLen == 0) return new byte[0];
+        if (len < 6) throw new IllegalArgumentException("Truncated Huffman header");
+        int mode = src[off + 4];
+        int first = src[off + 5] & 0xFF;
+        if (mode == MODE_SINGLE_SYMBOL) {
+            byte[] out = new byte[originalLen];
+            Arrays.fill(out, (byte) first);
+            return out;
+        }
+        if (mode != MODE_SINGLE_STREAM && mode != MODE_FOUR_STREAMS) throw new IllegalArgumentException("Bad Huffman header");
+        // Каждый символ занимает хотя бы один бит
+        if (originalLen > 8L * len) throw new IllegalArgumentException("Bad Huffman header: length " + originalLen);
+        if (len < 7) throw new IllegalArgumentException("Truncated Huffman header");
+        int last = src[off + 6] & 0xFF;
+        if (last < first || len - 7 < (last - first) / 2 + 1) throw new IllegalArgumentException("Truncated Huffman header");
+        byte[] out = new byte[originalLen];
+        int[] lengths = new int[256];
+        int pos = readLengths(src, off + 7, first, last, lengths);
+        int[] count = new int[MAX_CODE_LENGTH_LIMIT + 1];
+        int maxLength = 0;
+        for (int symbol = first; symbol <= last; symbol++) {
+            count[lengths[symbol]]++;
+            maxLength = Math.max(maxLength, lengths[symbol]);
         }
-        byte[] out = new byte[result.size()];
-        for (int i = 0; i < result.size(); i++) out[i] = result.get(i);
+        count[0] = 0;
+        if (maxLength == 0) throw new IllegalArgumentException("Bad Huffman header");
+        if (table == null) table = new int[1 << MAX_CODE_LENGTH_LIMIT];
+        buildDecodeTable(lengths, first, last, count, maxLength, table);
+        int decoded = mode == MODE_FOUR_STREAMS
+                ? decodeFourStreams(src, pos, end, table, maxLength, out)
+                : decodeSymbols(src, pos, 0, end, table, maxLength, out, 0, originalLen);
+        if (decoded != originalLen)
+            throw new IllegalArgumentException("Expected " + originalLen + " bytes, got " + decoded);
         return out;
     }
 
-    private static Node deserializeTree(byte[] data, int offset, int[] pos, int treeLen) {
-        if (pos[0] >= treeLen) return null;
-        byte flag = data[offset + pos[0]];
-        pos[0]++;
-        if (flag == 1) {
-            byte symbol = data[offset + pos[0]];
-            pos[0]++;
-            return new Node(symbol, 0, null, null);
-        } else {
-            Node left = deserializeTree(data, offset, pos, treeLen);
-            Node right = deserializeTree(data, offset, pos, treeLen);
-            return new Node((byte)0, 0, left, right);
+    /**
+     * Декодирование четырех потоков. В основном цикле каждый поток дозаполняет свой буфер
+     * и отдает по три символа; переменные потоков не зависят друг от друга, поэтому обращения
+     * к таблице и сдвиги четырех потоков выполняются процессором одновременно. Когда данных
+     * в каком-то потоке остается меньше чем на три кода, каждый поток дочитывается по одному
+     * символу с того бита, на котором остановился.
+     * @return длина восстановленного без пропусков начала данных
+     */
+    private static int decodeFourStreams(byte[] src, int pos, int end, int[] table, int tableBits, byte[] out) {
+        if (end - pos < 12) throw new IllegalArgumentException("Truncated Huffman stream sizes");
+        int[] start = new int[5];
+        start[0] = pos + 12;
+        for (int k = 0; k < 3; k++) {
+            int size = readInt(src, pos + 4 * k);
+            if (size < 0 || size > end - start[k]) throw new IllegalArgumentException("Bad Huffman stream size");
+            start[k + 1] = start[k] + size;
+        }
+        start[4] = end;
+        int length = out.length;
+        int segment = (length + 3) / 4;
+        int shift = 64 - tableBits;
+        int p0 = start[0], p1 = start[1], p2 = start[2], p3 = start[3];
+        int o0 = 0, o1 = segment, o2 = 2 * segment, o3 = 3 * segment;
+        long b0 = 0, b1 = 0, b2 = 0, b3 = 0;
+        int c0 = 0, c1 = 0, c2 = 0, c3 = 0;
+        // Четвертая часть самая короткая, остальные заканчиваются не раньше нее
+        while (o3 + 3 <= length) {
+            for (; c0 <= 56 && p0 < start[1]; c0 += 8) b0 |= (src[p0++] & 0xFFL) << (56 - c0);
+            for (; c1 <= 56 && p1 < start[2]; c1 += 8) b1 |= (src[p1++] & 0xFFL) << (56 - c1);
+            for (; c2 <= 56 && p2 < start[3]; c2 += 8) b2 |= (src[p2++] & 0xFFL) << (56 - c2);
+            for (; c3 <= 56 && p3 < start[4]; c3 += 8) b3 |= (src[p3++] & 0xFFL) << (56 - c3);
+            int least = 3 * MAX_CODE_LENGTH_LIMIT;
+            if (c0 < least || c1 < least || c2 < least || c3 < least) break;
+            for (int k = 0; k < 3; k++) {
+                int e0 = table[(int) (b0 >>> shift)];
+                int e1 = table[(int) (b1 >>> shift)];
+                int e2 = table[(int) (b2 >>> shift)];
+                int e3 = table[(int) (b3 >>> shift)];
+                int l0 = e0 & ENTRY_LENGTH_MASK, l1 = e1 & ENTRY_LENGTH_MASK;
+                int l2 = e2 & ENTRY_LENGTH_MASK, l3 = e3 & ENTRY_LENGTH_MASK;
+                if (((l0 - 1) | (l1 - 1) | (l2 - 1) | (l3 - 1)) < 0) throw new IllegalArgumentException("Bad Huffman code");
+                out[o0++] = (byte) (e0 >>> ENTRY_VALUE_SHIFT);
+                out[o1++] = (byte) (e1 >>> ENTRY_VALUE_SHIFT);
+                out[o2++] = (byte) (e2 >>> ENTRY_VALUE_SHIFT);
+                out[o3++] = (byte) (e3 >>> ENTRY_VALUE_SHIFT);
+                b0 <<= l0;
+                b1 <<= l1;
+                b2 <<= l2;
+                b3 <<= l3;
+                c0 -= l0;
+                c1 -= l1;
+                c2 -= l2;
+                c3 -= l3;
+            }
+        }
+        // Прочитанные, но не потребленные биты остаются в потоке: продолжаем с позиции в битах
+        long[] consumed = {
+                8L * (p0 - start[0]) - c0, 8L * (p1 - start[1]) - c1,
+                8L * (p2 - start[2]) - c2, 8L * (p3 - start[3]) - c3};
+        int[] resume = {o0, o1, o2, o3};
+        for (int k = 0; k < 4; k++) {
+            int segmentEnd = Math.min((k + 1) * segment, length);
+            int decoded = decodeSymbols(src, start[k] + (int) (consumed[k] >>> 3), (int) (consumed[k] & 7),
+                    start[k + 1], table, tableBits, out, resume[k], segmentEnd);
+            if (decoded < segmentEnd) return decoded;
+        }
+        return length;
+    }
+
+    private static int readLengths(byte[] src, int pos, int first, int last, int[] lengths) {
+        for (int symbol = first; symbol <= last; symbol += 2) {
+            int b = src[pos++] & 0xFF;
+            lengths[symbol] = b >>> 4;
+            if (symbol < last) lengths[symbol + 1] = b & 0x0F;
+        }
+        return pos;
+    }
+
+    /**
+     * Таблица декодирования на 2^tableBits записей: все индексы, начинающиеся с кода символа,
+     * указывают на запись [символ][длина кода]. Коды не длиннее tableBits, поэтому любой
+     * символ декодируется одним обращением к таблице. Таблица строится в начале массива table.
+     */
+    private static void buildDecodeTable(int[] lengths, int first, int last, int[] count, int tableBits, int[] table) {
+        int[] next = firstCodes(count, tableBits);
+        Arrays.fill(table, 0, 1 << tableBits, 0);
+        for (int symbol = first; symbol <= last; symbol++) {
+            int length = lengths[symbol];
+            if (length == 0) continue;
+            int from = next[length]++ << (tableBits - length);
+            Arrays.fill(table, from, from + (1 << (tableBits - length)), symbol << ENTRY_VALUE_SHIFT | length);
+        }
+    }
+
+    /**
+     * Табличное декодирование одного потока. Буфер на 64 бита дозаполняется побайтно до 57 бит и больше,
+     * чего хватает на три кода по 15 бит, поэтому в основном цикле одно дозаполнение
+     * приходится на три символа без проверок конца данных. Хвост декодируется по одному символу.
+     * Нулевая запись таблицы означает код, которого нет в неполном наборе длин: такие биты
+     * встречаются только в поврежденных данных или в дополнении последнего байта.
+     * @param skipBits сколько старших бит первого байта уже потреблено
+     * @param o позиция первого символа в out
+     * @param oEnd позиция за последним символом в out
+     * @return позиция за последним декодированным символом (меньше oEnd, если биты закончились)
+     */
+    private static int decodeSymbols(byte[] src, int pos, int skipBits, int end, int[] table, int tableBits,
+                                     byte[] out, int o, int oEnd) {
+        long bitBuf = 0;
+        int bitCount = 0;
+        if (skipBits > 0 && pos < end) {
+            bitBuf = (src[pos++] & 0xFFL) << (56 + skipBits);
+            bitCount = 8 - skipBits;
+        }
+        int shift = 64 - tableBits;
+        while (o + 3 <= oEnd) {
+            while (bitCount <= 56 && pos < end) {
+                bitBuf |= (src[pos++] & 0xFFL) << (56 - bitCount);
+                bitCount += 8;
+            }
+            if (bitCount < 3 * MAX_CODE_LENGTH_LIMIT) break;
+            for (int k = 0; k < 3; k++) {
+                int entry = table[(int) (bitBuf >>> shift)];
+                int length = entry & ENTRY_LENGTH_MASK;
+                if (length == 0) throw new IllegalArgumentException("Bad Huffman code");
+                out[o++] = (byte) (entry >>> ENTRY_VALUE_SHIFT);
+                bitBuf <<= length;
+                bitCount -= length;
+            }
         }
+        for (; o < oEnd; o++) {
+            while (bitCount <= 56 && pos < end) {
+                bitBuf |= (src[pos++] & 0xFFL) << (56 - bitCount);
+                bitCount += 8;
+            }
+            int entry = table[(int) (bitBuf >>> shift)];
+            int length = entry & ENTRY_LENGTH_MASK;
+            if (length == 0 && bitCount >= tableBits) throw new IllegalArgumentException("Bad Huffman code");
+            if (length == 0 || length > bitCount) return o;
+            out[o] = (byte) (entry >>> ENTRY_VALUE_SHIFT);
+            bitBuf <<= length;
+            bitCount -= length;
+        }
+        return oEnd;
+    }
+
+    private static void writeInt(byte[] buf, int off, int v) {
+        buf[off] = (byte) ((v >> 24) & 0xFF);
+        buf[off + 1] = (byte) ((v >> 16) & 0xFF);
+        buf[off + 2] = (byte) ((v >> 8) & 0xFF);
+        buf[off + 3] = (byte) (v & 0xFF);
+    }
+
+    private static int readInt(byte[] buf, int off) {
+        return ((buf[off] & 0xFF) << 24) | ((buf[off + 1] & 0xFF) << 16) | ((buf[off + 2] & 0xFF) << 8) | (buf[off + 3] & 0xFF);
+    }
+
+    /**
+     * Потоковое сжатие: вход режется на блоки по 1 МБ, у каждого блока свои длины кодов.
+     */
+    @Override
+    public void compress(InputStream in, OutputStream out) throws IOException {
+        BlockStreams.compress(this, in, out, STREAM_BLOCK_SIZE, streamBuffers);
     }
 
     /**
-     * Подсчитывает количество символов в дереве Хаффмена.
-     * Используется для ограничения декодирования только исходным количеством символов.
+     * Потоковое восстановление данных, записанных блоками.
      */
-    private static int countSymbols(Node node) {
-        if (node == null) return 0;
-        if (node.isLeaf()) return node.freq;
-        return countSymbols(node.left) + countSymbols(node.right);
+    @Override
+    public void decompress(InputStream in, OutputStream out) throws IOException {
+        BlockStreams.decompress(this, in, out, STREAM_BLOCK_SIZE, streamBuffers);
+    }
+
+    @Override
+    public void reset() {
+        counts = null;
+        table = null;
+        streamBuffers.release();
     }
 }
@@ -1,82 +1,344 @@
 package org.example.compression;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.*;
 
 /**
  * Реализация алгоритма LZW (Lempel-Ziv-Welch).
  * Сжимает повторяющиеся подстроки, используя динамический словарь.
  * Подходит для текстов с повторяющимися фрагментами.
+ * Коды переменной длины: от 9 до 16 бит, длина растет по мере заполнения словаря.
+ * Заполненный словарь замораживается; если после этого степень сжатия падает,
+ * кодер выдает код CLEAR, и обе стороны начинают словарь заново.
  */
 public class LZWCompressor implements Compressor {
     private static final int DICT_SIZE = 256;
+    /** Код сброса словаря. */
+    private static final int CLEAR = 256;
+    /** Первый код, который получает новая строка словаря. */
+    private static final int FIRST_CODE = 257;
+    private static final int MIN_BITS = 9;
+    private static final int MAX_BITS = 16;
+    private static final int MAX_CODES = 1 << MAX_BITS;
+    // Строка кода FIRST_CODE + j не длиннее j + 2 байт
+    private static final int MAX_PHRASE_LENGTH = MAX_CODES - FIRST_CODE + 1;
+    // Как часто (в байтах входа) проверяется степень сжатия при заполненном словаре
+    private static final int CHECK_GAP = 10_000;
+    // Хеш-таблица словаря кодера: вдвое больше максимального числа кодов
+    private static final int HASH_BITS = 17;
+    private static final int HASH_SIZE = 1 << HASH_BITS;
+    private static final int MIN_HASH_BITS = 8;
+    private static final int STREAM_BLOCK_SIZE = 1 << 20;
+    // Буфер декодера больше этого размера не хранится в контексте между вызовами
+    private static final int MAX_RETAINED_SIZE = 1 << 20;
+
+    // Рабочие буферы контекста: выделяются при первом вызове и переиспользуются
+    private int[] keys;
+    private int[] values;
+    private int[] prefix;
+    private byte[] suffix;
+    private int[] lengths;
+    private byte[] decoded = new byte[0];
+    private final BlockStreams.Buffers streamBuffers = new BlockStreams.Buffers();
 
     /**
-     * Сжимает данные методом LZW.
-     * @param input исходные данные
-     * @return сжатый массив байт
+     * Кодов не больше, чем входных байт, каждый не длиннее 16 бит;
+     * плюс редкие коды CLEAR (не чаще одного на заполненный словарь) и неполный последний байт.
      */
     @Override
-    public byte[] compress(byte[] input) {
-        Map<String, Integer> dict = new HashMap<>();
-        for (int i = 0; i < DICT_SIZE; i++) dict.put("" + (char) i, i);
-        String w = "";
-        List<Integer> result = new ArrayList<>();
-        for (byte b : input) {
-            char c = (char) (b & 0xFF);
-            String wc = w + c;
-            if (dict.containsKey(wc)) {
-                w = wc;
-            } else {
-                result.add(dict.get(w));
-                dict.put(wc, dict.size());
-                w = "" + c;
-            }
+    public int maxCompressedLength(int length) {
+        long bound = 2L * length + (length >>> 15) + 4;
+        if (bound > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Input too large for LZW: " + length);
+        return (int) bound;
+    }
+
+    /**
+     * Сжимает данные методом LZW прямо в буфер dst.
+     * Словарь — хеш-таблица с открытой адресацией: ключ (код префикса, следующий байт)
+     * упакован в int, значение — код строки. На входной байт нет ни одной аллокации.
+     * Длина кода — минимальная, вмещающая все коды словаря (от 9 до 16 бит).
+     * @param src исходные данные
+     * @param srcOff смещение исходных данных
+     * @param srcLen длина исходных данных
+     * @param dst буфер для сжатых данных
+     * @param dstOff смещение в буфере
+     * @return количество записанных байт
+     */
+    @Override
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        Objects.checkFromIndexSize(srcOff, srcLen, src.length);
+        Objects.checkFromIndexSize(dstOff, maxCompressedLength(srcLen), dst.length);
+        if (srcLen == 0) return 0;
+        int end = srcOff + srcLen;
+        if (keys == null) {
+            keys = new int[HASH_SIZE];
+            values = new int[HASH_SIZE];
         }
-        if (!w.isEmpty()) result.add(dict.get(w));
-        // Преобразуем список чисел в байты (2 байта на число)
-        byte[] out = new byte[result.size() * 2];
-        for (int i = 0; i < result.size(); i++) {
-            int code = result.get(i);
-            out[i * 2] = (byte) ((code >> 8) & 0xFF);
-            out[i * 2 + 1] = (byte) (code & 0xFF);
+        int[] keys = this.keys;
+        int[] values = this.values;
+        // Строк в словаре не больше, чем входных байт: маленькому входу хватает начала таблицы,
+        // и очищать (значения без ключа не читаются, поэтому только ключи) нужно только его
+        int hashBits = Math.min(HASH_BITS, Math.max(MIN_HASH_BITS, 33 - Integer.numberOfLeadingZeros(srcLen)));
+        int hashMask = (1 << hashBits) - 1;
+        Arrays.fill(keys, 0, 1 << hashBits, 0);
+        BitWriter out = new BitWriter(dst, dstOff);
+        int nextCode = FIRST_CODE;
+        int width = MIN_BITS;
+        // Контроль степени сжатия с момента последнего сброса (как в compress(1))
+        int resetAt = srcOff;
+        long bitsSinceReset = 0;
+        long nextCheck = CHECK_GAP;
+        double bestRatio = 0;
+        int w = src[srcOff] & 0xFF;
+        for (int i = srcOff + 1; i < end; i++) {
+            int c = src[i] & 0xFF;
+            // +1, чтобы ключ никогда не совпадал с пустой ячейкой (0)
+            int key = ((w << 8) | c) + 1;
+            int slot = (key * 0x9E3779B1) >>> (32 - hashBits);
+            while (keys[slot] != 0 && keys[slot] != key) slot = (slot + 1) & hashMask;
+            if (keys[slot] == key) {
+                w = values[slot];
+                continue;
+            }
+            out.write(w, width);
+            bitsSinceReset += width;
+            if (nextCode < MAX_CODES) {
+                keys[slot] = key;
+                values[slot] = nextCode++;
+                if (nextCode > (1 << width)) width++;
+            } else if (i - resetAt >= nextCheck) {
+                nextCheck = i - resetAt + CHECK_GAP;
+                double ratio = (double) (i - resetAt) / bitsSinceReset;
+                if (ratio >= bestRatio) {
+                    bestRatio = ratio;
+                } else {
+                    // Словарь перестал подходить к данным: сбрасываем его
+                    out.write(CLEAR, width);
+                    Arrays.fill(keys, 0, 1 << hashBits, 0);
+                    nextCode = FIRST_CODE;
+                    width = MIN_BITS;
+                    resetAt = i;
+                    bitsSinceReset = 0;
+                    nextCheck = CHECK_GAP;
+                    bestRatio = 0;
+                }
+            }
+            w = c;
         }
-        return out;
+        out.write(w, width);
+        return out.finish() - dstOff;
     }
 
     /**
-     * Восстанавливает исходные данные из LZW-сжатого массива.
-     * @param input сжатые данные
+     * Восстанавливает исходные данные из LZW-сжатого фрагмента массива.
+     * Словарь хранится в параллельных массивах: код префикса, последний байт и длина строки.
+     * Строка кода разворачивается с конца прямо в выходной буфер, проходя по цепочке префиксов.
+     * Длина каждого кода вычисляется так же, как в кодере: декодер добавляет строку
+     * в словарь на шаг позже кодера, поэтому ориентируется на nextCode + 1.
+     * @param src сжатые данные
+     * @param off смещение сжатых данных
+     * @param len длина сжатых данных
      * @return восстановленный массив байт
      */
     @Override
-    public byte[] decompress(byte[] input) {
-        List<Integer> codes = new ArrayList<>();
-        for (int i = 0; i < input.length; i += 2) {
-            int code = ((input[i] & 0xFF) << 8) | (input[i + 1] & 0xFF);
-            codes.add(code);
+    public byte[] decompress(byte[] src, int off, int len) {
+        return decode(src, off, len, -1);
+    }
+
+    /**
+     * Декодирует сразу в массив известной длины: ни рабочего буфера, ни копии результата.
+     * Длина сверяется с наибольшей, которую могут дать len байт кодов, до выделения массива.
+     */
+    @Override
+    public byte[] decompress(byte[] src, int off, int len, int expectedLength) {
+        if (expectedLength < 0) throw new IllegalArgumentException("Negative expected length: " + expectedLength);
+        // Каждый код занимает не меньше 9 бит и дает не больше MAX_PHRASE_LENGTH байт
+        if (expectedLength > 8L * len / MIN_BITS * MAX_PHRASE_LENGTH)
+            throw new IllegalArgumentException("LZW data too short for " + expectedLength + " bytes");
+        return decode(src, off, len, expectedLength);
+    }
+
+    private byte[] decode(byte[] src, int off, int len, int expectedLength) {
+        Objects.checkFromIndexSize(off, len, src.length);
+        BitReader in = new BitReader(src, off, off + len);
+        if (prefix == null) {
+            prefix = new int[MAX_CODES];
+            suffix = new byte[MAX_CODES];
+            lengths = new int[MAX_CODES];
+            // Однобайтовые строки не меняются, новые коды начинаются с FIRST_CODE
+            for (int i = 0; i < DICT_SIZE; i++) {
+                suffix[i] = (byte) i;
+                lengths[i] = 1;
+            }
+        }
+        int[] prefix = this.prefix;
+        byte[] suffix = this.suffix;
+        int[] length = this.lengths;
+        byte[] out;
+        if (expectedLength >= 0) {
+            out = new byte[expectedLength];
+        } else {
+            // Длина неизвестна: каждый код дает хотя бы один байт на 9-16 бит входа, буфер растет
+            // при необходимости; небольшой буфер остается в контексте, большой — нет
+            int initial = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(16, 2L * len));
+            if (initial > MAX_RETAINED_SIZE) {
+                out = new byte[initial];
+            } else {
+                if (decoded.length < initial) decoded = new byte[initial];
+                out = decoded;
+            }
         }
-        Map<Integer, String> dict = new HashMap<>();
-        for (int i = 0; i < DICT_SIZE; i++) dict.put(i, "" + (char) i);
-        // Исправлено: получаем первый код как int
-        int firstCode = codes.get(0);
-        String w = "" + (char) firstCode;
-        StringBuilder result = new StringBuilder(w);
-        for (int i = 1; i < codes.size(); i++) {
-            int k = codes.get(i);
-            String entry;
-            if (dict.containsKey(k)) {
-                entry = dict.get(k);
-            } else if (k == dict.size()) {
-                entry = w + w.charAt(0);
+        int o = 0;
+        int nextCode = FIRST_CODE;
+        int width = MIN_BITS;
+        int prev = -1;
+        int k;
+        while ((k = in.read(width)) >= 0) {
+            if (k == CLEAR) {
+                nextCode = FIRST_CODE;
+                width = MIN_BITS;
+                prev = -1;
+                continue;
+            }
+            int entryLen;
+            if (k < nextCode && k != CLEAR) {
+                entryLen = length[k];
+            } else if (k == nextCode && prev >= 0 && k < MAX_CODES) {
+                // Случай KwKwK: строка кода — предыдущая строка плюс ее же первый байт
+                entryLen = length[prev] + 1;
             } else {
                 throw new IllegalArgumentException("Bad LZW code: " + k);
             }
-            result.append(entry);
-            dict.put(dict.size(), w + entry.charAt(0));
-            w = entry;
+            if (o + entryLen > out.length) {
+                if (expectedLength >= 0) throw new IllegalArgumentException("LZW data longer than " + expectedLength + " bytes");
+                out = Arrays.copyOf(out, Math.max(o + entryLen, 2 * out.length));
+            }
+            int code = k == nextCode ? prev : k;
+            int p = o + (k == nextCode ? entryLen - 2 : entryLen - 1);
+            while (code >= DICT_SIZE) {
+                out[p--] = suffix[code];
+                code = prefix[code];
+            }
+            out[p] = (byte) code;
+            // Первый байт строки сейчас лежит в out[o]
+            if (k == nextCode) out[o + entryLen - 1] = out[o];
+            if (prev >= 0 && nextCode < MAX_CODES) {
+                prefix[nextCode] = prev;
+                suffix[nextCode] = out[o];
+                length[nextCode] = length[prev] + 1;
+                nextCode++;
+                if (nextCode + 1 > (1 << width) && width < MAX_BITS) width++;
+            }
+            o += entryLen;
+            prev = k;
+        }
+        if (expectedLength >= 0) {
+            if (o != expectedLength) throw new IllegalArgumentException("Expected " + expectedLength + " bytes, got " + o);
+            return out;
+        }
+        // Буфер контекста наружу не отдается; собственный массив точной длины возвращается как есть
+        return out == decoded || o != out.length ? Arrays.copyOf(out, o) : out;
+    }
+
+    /**
+     * Запись кодов переменной длины старшими битами вперед через 64-битный накопитель.
+     */
+    private static final class BitWriter {
+        private final byte[] dst;
+        private int pos;
+        private long acc;
+        private int accBits;
+
+        BitWriter(byte[] dst, int pos) {
+            this.dst = dst;
+            this.pos = pos;
+        }
+
+        void write(int code, int width) {
+            acc = (acc << width) | code;
+            accBits += width;
+            if (accBits >= 32) {
+                accBits -= 32;
+                int word = (int) (acc >>> accBits);
+                dst[pos] = (byte) (word >>> 24);
+                dst[pos + 1] = (byte) (word >>> 16);
+                dst[pos + 2] = (byte) (word >>> 8);
+                dst[pos + 3] = (byte) word;
+                pos += 4;
+            }
+        }
+
+        /**
+         * Сбрасывает остаток накопителя; последний байт дополняется нулями.
+         * @return позиция сразу за записанными данными
+         */
+        int finish() {
+            while (accBits >= 8) {
+                accBits -= 8;
+                dst[pos++] = (byte) (acc >>> accBits);
+            }
+            if (accBits > 0) dst[pos++] = (byte) (acc << (8 - accBits));
+            accBits = 0;
+            return pos;
+        }
+    }
+
+    /**
+     * Чтение кодов переменной длины старшими битами вперед.
+     */
+    private static final class BitReader {
+        private final byte[] src;
+        private final int end;
+        private int pos;
+        private long acc;
+        private int accBits;
+
+        BitReader(byte[] src, int pos, int end) {
+            this.src = src;
+            this.pos = pos;
+            this.end = end;
+        }
+
+        /**
+         * @return следующий код или -1, если осталось меньше width бит (дополнение последнего байта)
+         */
+        int read(int width) {
+            while (accBits < width && pos < end) {
+                acc = (acc << 8) | (src[pos++] & 0xFF);
+                accBits += 8;
+            }
+            if (accBits < width) return -1;
+            accBits -= width;
+            return (int) (acc >>> accBits) & ((1 << width) - 1);
         }
-        byte[] out = new byte[result.length()];
-        for (int i = 0; i < result.length(); i++) out[i] = (byte) result.charAt(i);
-        return out;
+    }
+
+    /**
+     * Потоковое LZW-сжатие: вход режется на блоки, для каждого блока строится свой словарь.
+     */
+    @Override
+    public void compress(InputStream in, OutputStream out) throws IOException {
+        BlockStreams.compress(this, in, out, STREAM_BLOCK_SIZE, streamBuffers);
+    }
+
+    /**
+     * Потоковое восстановление LZW-данных, записанных блоками.
+     */
+    @Override
+    public void decompress(InputStream in, OutputStream out) throws IOException {
+        BlockStreams.decompress(this, in, out, STREAM_BLOCK_SIZE, streamBuffers);
+    }
+
+    @Override
+    public void reset() {
+        keys = null;
+        values = null;
+        prefix = null;
+        suffix = null;
+        lengths = null;
+        decoded = new byte[0];
+        streamBuffers.release();
     }
 }
@@ -1,67 +1,238 @@
 package org.example.compression;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Objects;
 
 /**
  * Реализация алгоритма RLE (Run-Length Encoding).
  * Сжимает повторяющиеся последовательности одинаковых байтов.
  * Если подряд идут более 3 одинаковых байта, они заменяются на флажок, байт и количество повторов.
+ * Сам байт-флажок всегда кодируется серией, чтобы декодер не спутал его с началом серии.
+ * Кодер и декодер работают на массивах байт без промежуточных коллекций:
+ * серии и флажки ищутся по 8 байт за сравнение, серии восстанавливаются через Arrays.fill.
  */
 public class RLECompressor implements Compressor {
     private static final byte FLAG = (byte) 0xFF; // Флажок для RLE
+    private static final int MAX_RUN = 255;
+    private static final int STREAM_CHUNK_SIZE = 1 << 16;
+    // Чтение 8 байт массива одним long; младший байт long — байт с меньшим индексом
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    // Буферы потокового сжатия, переиспользуемые между вызовами
+    private byte[] chunk;
+    private byte[] packed;
 
     /**
-     * Сжимает данные методом RLE.
-     * @param data исходные данные
-     * @return сжатый массив байт
+     * Худший случай — одиночные байты-флажки через один: 3 байта на флажок и 1 на соседний байт.
      */
     @Override
-    public byte[] compress(byte[] data) {
-        List<Byte> result = new ArrayList<>();
-        int i = 0;
-        while (i < data.length) {
-            int runLength = 1;
-            while (i + runLength < data.length && data[i] == data[i + runLength] && runLength < 255) {
-                runLength++;
-            }
-            if (runLength > 3) {
-                result.add(FLAG);
-                result.add(data[i]);
-                result.add((byte) runLength);
-                i += runLength;
+    public int maxCompressedLength(int length) {
+        long bound = 2L * length + 1;
+        if (bound > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("Input too large for RLE: " + length);
+        return (int) bound;
+    }
+
+    /**
+     * Сжимает данные методом RLE прямо в буфер dst.
+     * @param src исходные данные
+     * @param srcOff смещение исходных данных
+     * @param srcLen длина исходных данных
+     * @param dst буфер для сжатых данных
+     * @param dstOff смещение в буфере
+     * @return количество записанных байт
+     */
+    @Override
+    public int compress(byte[] src, int srcOff, int srcLen, byte[] dst, int dstOff) {
+        Objects.checkFromIndexSize(srcOff, srcLen, src.length);
+        Objects.checkFromIndexSize(dstOff, maxCompressedLength(srcLen), dst.length);
+        int end = srcOff + srcLen;
+        int i = srcOff;
+        int o = dstOff;
+        while (i < end) {
+            byte value = src[i];
+            int runLength = runLength(src, i, end);
+            if (runLength > 3 || value == FLAG) {
+                dst[o++] = FLAG;
+                dst[o++] = value;
+                dst[o++] = (byte) runLength;
             } else {
-                result.add(data[i]);
-                i++;
+                // Короткая серия пишется как есть: 1-3 одинаковых байта
+                dst[o++] = value;
+                if (runLength > 1) dst[o++] = value;
+                if (runLength > 2) dst[o++] = value;
             }
+            i += runLength;
         }
-        byte[] out = new byte[result.size()];
-        for (int j = 0; j < result.size(); j++) out[j] = result.get(j);
-        return out;
+        return o - dstOff;
     }
 
     /**
-     * Восстанавливает исходные данные из RLE-сжатого массива.
-     * @param data сжатые данные
+     * Длина серии одинаковых байт начиная с src[from], не больше MAX_RUN.
+     * Сравнивает по 8 байт: XOR с образцом из 8 копий байта дает ноль, пока серия продолжается.
+     */
+    private static int runLength(byte[] src, int from, int end) {
+        byte value = src[from];
+        int limit = Math.min(end, from + MAX_RUN);
+        int j = from + 1;
+        // Быстрый выход для текста, где серий почти нет
+        if (j < limit && src[j] != value) return 1;
+        long pattern = (value & 0xFFL) * ONES;
+        while (j + 8 <= limit) {
+            long diff = (long) LONGS.get(src, j) ^ pattern;
+            if (diff != 0) return j - from + (Long.numberOfTrailingZeros(diff) >>> 3);
+            j += 8;
+        }
+        while (j < limit && src[j] == value) j++;
+        return j - from;
+    }
+
+    /**
+     * Восстанавливает исходные данные из RLE-сжатого фрагмента массива.
+     * Сначала считается точный размер результата, затем массив заполняется за один проход:
+     * участки без флажков копируются целиком, серии — через Arrays.fill.
+     * @param src сжатые данные
+     * @param off смещение сжатых данных
+     * @param len длина сжатых данных
      * @return восстановленный массив байт
      */
     @Override
-    public byte[] decompress(byte[] data) {
-        List<Byte> result = new ArrayList<>();
-        int i = 0;
-        while (i < data.length) {
-            if (data[i] == FLAG && i + 2 < data.length) {
-                byte value = data[i + 1];
-                int count = data[i + 2] & 0xFF;
-                for (int j = 0; j < count; j++) result.add(value);
+    public byte[] decompress(byte[] src, int off, int len) {
+        Objects.checkFromIndexSize(off, len, src.length);
+        int end = off + len;
+        byte[] out = new byte[decodedLength(src, off, end)];
+        int i = off;
+        int o = 0;
+        while (i < end) {
+            int flag = nextFlag(src, i, end);
+            System.arraycopy(src, i, out, o, flag - i);
+            o += flag - i;
+            i = flag;
+            if (i == end) break;
+            if (i + 2 < end) {
+                int count = src[i + 2] & 0xFF;
+                Arrays.fill(out, o, o + count, src[i + 1]);
+                o += count;
                 i += 3;
             } else {
-                result.add(data[i]);
-                i++;
+                // Неполная серия в конце — байты пишутся как есть
+                System.arraycopy(src, i, out, o, end - i);
+                break;
             }
         }
-        byte[] out = new byte[result.size()];
-        for (int j = 0; j < result.size(); j++) out[j] = result.get(j);
         return out;
     }
+
+    // Размер восстановленных данных: литералы плюс длины всех серий
+    private static int decodedLength(byte[] src, int off, int end) {
+        long total = 0;
+        int i = off;
+        while (i < end) {
+            int flag = nextFlag(src, i, end);
+            total += flag - i;
+            if (flag + 2 < end) {
+                total += src[flag + 2] & 0xFF;
+                i = flag + 3;
+            } else {
+                total += end - flag;
+                break;
+            }
+        }
+        if (total > Integer.MAX_VALUE - 8) throw new IllegalArgumentException("RLE data too large: " + total);
+        return (int) total;
+    }
+
+    /**
+     * Индекс следующего байта-флажка начиная с from (или end, если флажков нет).
+     * Ищет по 8 байт: после XOR с 0xFF..FF флажки становятся нулевыми байтами.
+     */
+    private static int nextFlag(byte[] src, int from, int end) {
+        int j = from;
+        while (j + 8 <= end) {
+            long v = ~(long) LONGS.get(src, j);
+            long zeros = (v - ONES) & ~v & HIGHS;
+            if (zeros != 0) return j + (Long.numberOfTrailingZeros(zeros) >>> 3);
+            j += 8;
+        }
+        while (j < end && src[j] != FLAG) j++;
+        return j;
+    }
+
+    /**
+     * Потоковое RLE-сжатие. Формат совпадает с {@link #compress(byte[], int, int, byte[], int)}:
+     * вход сжимается кусками, а незаконченная серия в конце куска переносится в следующий.
+     */
+    @Override
+    public void compress(InputStream in, OutputStream out) throws IOException {
+        if (chunk == null) {
+            chunk = new byte[STREAM_CHUNK_SIZE];
+            packed = new byte[maxCompressedLength(STREAM_CHUNK_SIZE)];
+        }
+        byte[] chunk = this.chunk;
+        byte[] packed = this.packed;
+        int len = 0;
+        while (true) {
+            int n = in.readNBytes(chunk, len, chunk.length - len);
+            len += n;
+            boolean last = n == 0 || len < chunk.length;
+            if (len == 0) break;
+            // Серия, которая может продолжиться в следующем куске, переносится туда
+            // с точностью до кратного MAX_RUN, чтобы разбиение серий совпало с кодированием массива
+            int carry = 0;
+            if (!last) {
+                int runStart = len - 1;
+                while (runStart > 0 && chunk[runStart - 1] == chunk[len - 1]) runStart--;
+                carry = (len - runStart) % MAX_RUN;
+            }
+            int packedLen = compress(chunk, 0, len - carry, packed, 0);
+            out.write(packed, 0, packedLen);
+            System.arraycopy(chunk, len - carry, chunk, 0, carry);
+            len = carry;
+            if (last) break;
+        }
+        out.flush();
+    }
+
+    /**
+     * Потоковое восстановление RLE-данных.
+     */
+    @Override
+    public void decompress(InputStream in, OutputStream out) throws IOException {
+        InputStream src = new BufferedInputStream(in);
+        OutputStream dst = new BufferedOutputStream(out);
+        byte[] run = new byte[MAX_RUN];
+        int b;
+        while ((b = src.read()) >= 0) {
+            if ((byte) b != FLAG) {
+                dst.write(b);
+                continue;
+            }
+            int value = src.read();
+            int count = value < 0 ? -1 : src.read();
+            if (count < 0) {
+                // Неполная серия в конце потока — как и в decompress(byte[]), байты пишутся как есть
+                dst.write(b);
+                if (value >= 0) dst.write(value);
+                break;
+            }
+            Arrays.fill(run, 0, count, (byte) value);
+            dst.write(run, 0, count);
+        }
+        dst.flush();
+    }
+
+    @Override
+    public void reset() {
+        chunk = null;
+        packed = null;
+    }
 }
@@ -0,0 +1,92 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchTest {
+
+    private static void assertRestores(Path original, Path archive) throws IOException {
+        Path restored = Files.createTempFile("batchRestored", ".dat");
+        FileArchiver.decompressFileAuto(archive.toString(), restored.toString());
+        assertArrayEquals(Files.readAllBytes(original), Files.readAllBytes(restored), original.toString());
+    }
+
+    @Test
+    void testBatchDirectory() throws IOException {
+        Path dir = ContainerTest.createTree();
+        Path out = Files.createTempDirectory("batchOut");
+        assertEquals(4, FileArchiver.compressBatch(List.of(dir.toString()), out.toString(), null, 1 << 16));
+        for (String path : List.of("a.txt", "docs/b.bin", "docs/nested/c.dat", "empty.txt")) {
+            assertRestores(dir.resolve(path), out.resolve(path + Batch.ARCHIVE_SUFFIX));
+        }
+    }
+
+    @Test
+    void testBatchGlobAndManifest() throws IOException {
+        Path dir = ContainerTest.createTree();
+        Path manifest = Files.createTempFile("batch", ".lst");
+        Files.write(manifest, List.of(dir.resolve("a.txt").toString(), ""));
+
+        List<Batch.Item> items = Batch.collect(List.of(dir + "/docs/**", "@" + manifest), Path.of("out"));
+        assertEquals(List.of(dir.resolve("docs/b.bin"), dir.resolve("docs/nested/c.dat"), dir.resolve("a.txt")),
+                items.stream().map(Batch.Item::input).toList());
+        Path out = Path.of("out").toAbsolutePath();
+        assertEquals(out.resolve("nested/c.dat.arc"), items.get(1).output());
+        // Абсолютный путь из манифеста сохраняется без корня
+        assertEquals(out.resolve(dir.getRoot().relativize(dir)).resolve("a.txt.arc"), items.get(2).output());
+    }
+
+    @Test
+    void testBatchRejectsCollidingOutputs() throws IOException {
+        Path first = ContainerTest.createTree();
+        Path second = ContainerTest.createTree();
+        Path out = Files.createTempDirectory("batchOut");
+        // Файлы с одинаковыми относительными путями из двух каталогов попали бы в один архив
+        IOException e = assertThrows(IOException.class,
+                () -> Batch.collect(List.of(first.toString(), second.toString()), out));
+        assertTrue(e.getMessage().contains("same archive"), e.getMessage());
+        // Тот же файл, указанный дважды, сжимается один раз
+        Path manifest = Files.createTempFile("batch", ".lst");
+        Files.write(manifest, List.of(first.resolve("a.txt").toString()));
+        assertEquals(1, Batch.collect(List.of(first.resolve("a.txt").toString(), "@" + manifest), out).size());
+    }
+
+    @Test
+    void testBatchReportsFailuresAfterFinishing() throws IOException {
+        Path dir = ContainerTest.createTree();
+        Path out = Files.createTempDirectory("batchOut");
+        List<String> inputs = List.of(dir.resolve("a.txt").toString(), dir.resolve("missing1").toString(),
+                dir.resolve("missing2").toString());
+        IOException e = assertThrows(IOException.class,
+                () -> FileArchiver.compressBatch(inputs, out.toString(), FileArchiver.Method.LZW, 1 << 16));
+        assertInstanceOf(NoSuchFileException.class, e);
+        assertEquals(1, e.getSuppressed().length);
+        assertRestores(dir.resolve("a.txt"), out.resolve(dir.getRoot().relativize(dir)).resolve("a.txt" + Batch.ARCHIVE_SUFFIX));
+    }
+
+    @Test
+    void testNestedTaskFailureUnwrapped() {
+        // Ошибка кодирования в пуле cpu, переданная через виртуальный поток
+        IOException original = new IOException("compress failed");
+        Throwable nested = new ExecutionException(new ExecutionException(new UncheckedIOException(original)));
+        assertSame(original, Batch.unwrap(nested));
+        RuntimeException bug = new IllegalStateException();
+        assertSame(bug, Batch.unwrap(new ExecutionException(new ExecutionException(bug))));
+    }
+
+    @Test
+    void testMemoryBudgetPermits() {
+        assertEquals(1, Batch.permits(0));
+        assertEquals(1, Batch.permits(1));
+        assertEquals(2, Batch.permits(1025));
+        // Файл больше бюджета получает весь бюджет и не ждет вечно
+        assertEquals(Batch.permits(Batch.MEMORY_BUDGET), Batch.permits(Long.MAX_VALUE / 2));
+    }
+}
@@ -0,0 +1,184 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContainerTest {
+
+    static Path createTree() throws IOException {
+        Path dir = Files.createTempDirectory("containerTree");
+        Files.createDirectories(dir.resolve("docs/nested"));
+        Files.write(dir.resolve("a.txt"), "hello hello hello container".repeat(50).getBytes());
+        Files.write(dir.resolve("docs/b.bin"), new byte[100_000]);
+        byte[] random = new byte[70_000];
+        new Random(3).nextBytes(random);
+        Files.write(dir.resolve("docs/nested/c.dat"), random);
+        Files.write(dir.resolve("empty.txt"), new byte[0]);
+        return dir;
+    }
+
+    static void assertSameTree(Path expected, Path actual) throws IOException {
+        for (String path : List.of("a.txt", "docs/b.bin", "docs/nested/c.dat", "empty.txt")) {
+            assertArrayEquals(Files.readAllBytes(expected.resolve(path)), Files.readAllBytes(actual.resolve(path)), path);
+        }
+    }
+
+    @Test
+    void testDirectoryRoundTrip() throws IOException {
+        Path dir = createTree();
+        Path archive = Files.createTempFile("container", ".arc");
+        Path restored = Files.createTempDirectory("containerRestored");
+        assertEquals(4, FileArchiver.compressDirectory(dir.toString(), archive.toString(), null));
+        assertEquals(1350 + 100_000 + 70_000, FileArchiver.verifyArchive(archive.toString()));
+        assertEquals(List.of("a.txt", "docs/b.bin", "docs/nested/c.dat", "empty.txt"), FileArchiver.listArchive(archive.toString()));
+        FileArchiver.extractArchive(archive.toString(), restored.toString());
+        assertSameTree(dir, restored);
+        // Автоматическая распаковка узнает контейнер по первому байту
+        Path restoredAuto = Files.createTempDirectory("containerRestoredAuto");
+        FileArchiver.decompressFileAuto(archive.toString(), restoredAuto.toString());
+        assertSameTree(dir, restoredAuto);
+    }
+
+    @Test
+    void testCorruptedEntryDetected() throws IOException {
+        Path dir = createTree();
+        Path archive = Files.createTempFile("containerCorrupt", ".arc");
+        FileArchiver.compressDirectory(dir.toString(), archive.toString(), FileArchiver.Method.RLE);
+        try (RandomAccessFile raf = new RandomAccessFile(archive.toFile(), "rw")) {
+            // Первые байты данных файла a.txt: литералы RLE
+            raf.seek(1);
+            raf.write('X');
+        }
+        assertThrows(IOException.class, () -> FileArchiver.verifyArchive(archive.toString()));
+        Path restored = Files.createTempDirectory("containerCorruptRestored");
+        assertThrows(IOException.class, () -> FileArchiver.extractArchive(archive.toString(), restored.toString()));
+        // Поврежденная запись не оставляет недописанного файла
+        assertFalse(Files.exists(restored.resolve("a.txt")));
+        Path target = restored.resolve("entry.txt");
+        assertThrows(IOException.class, () -> FileArchiver.extractEntry(archive.toString(), "a.txt", target.toString()));
+        assertFalse(Files.exists(target));
+    }
+
+    @Test
+    void testOtherFormatsNotReadAsContainer() throws IOException {
+        Path dir = createTree();
+        Path block = Files.createTempFile("containerBlock", ".arc");
+        FileArchiver.compressFile(dir.resolve("a.txt").toString(), block.toString(), FileArchiver.Method.LZW);
+        Path dedup = Files.createTempFile("containerDedup", ".arc");
+        FileArchiver.compressDeduplicated(dir.toString(), dedup.toString(), null);
+        // Целый архив другого формата не поврежденный контейнер
+        for (Path archive : List.of(block, dedup)) {
+            try (FileChannel ch = FileChannel.open(archive, StandardOpenOption.READ)) {
+                IOException e = assertThrows(IOException.class, () -> Container.readDirectory(ch));
+                assertEquals("Not a container archive", e.getMessage());
+            }
+        }
+        IOException e = assertThrows(IOException.class, () -> FileArchiver.listArchive(block.toString()));
+        assertTrue(e.getMessage().startsWith("Not a multi-file archive"), e.getMessage());
+        Path target = Files.createTempFile("containerOther", ".dat");
+        e = assertThrows(IOException.class,
+                () -> FileArchiver.extractEntry(dedup.toString(), "a.txt", target.toString()));
+        assertTrue(e.getMessage().startsWith("Single-entry extraction is not supported"), e.getMessage());
+        e = assertThrows(IOException.class,
+                () -> FileArchiver.extractEntry(block.toString(), "a.txt", target.toString()));
+        assertTrue(e.getMessage().startsWith("Not a container archive"), e.getMessage());
+        Path restored = Files.createTempDirectory("containerOtherRestored");
+        e = assertThrows(IOException.class, () -> FileArchiver.extractArchive(block.toString(), restored.toString()));
+        assertTrue(e.getMessage().startsWith("Not a multi-file archive"), e.getMessage());
+        // Обновление и уплотнение не трогают архив другого формата
+        byte[] before = Files.readAllBytes(block);
+        e = assertThrows(IOException.class, () -> FileArchiver.updateArchive(dir.toString(), block.toString(), null));
+        assertEquals("Not a container archive", e.getMessage());
+        e = assertThrows(IOException.class, () -> FileArchiver.compactArchive(dedup.toString()));
+        assertEquals("Not a container archive", e.getMessage());
+        assertArrayEquals(before, Files.readAllBytes(block));
+    }
+
+    @Test
+    void testSingleEntryExtraction() throws IOException {
+        Path dir = createTree();
+        Path archive = Files.createTempFile("containerEntry", ".arc");
+        FileArchiver.compressDirectory(dir.toString(), archive.toString(), null);
+        Path target = Files.createTempFile("containerEntry", ".dat");
+        FileArchiver.extractEntry(archive.toString(), "docs/nested/c.dat", target.toString());
+        assertArrayEquals(Files.readAllBytes(dir.resolve("docs/nested/c.dat")), Files.readAllBytes(target));
+        FileArchiver.extractEntry(archive.toString(), "empty.txt", target.toString());
+        assertEquals(0, Files.size(target));
+        assertThrows(FileNotFoundException.class,
+                () -> FileArchiver.extractEntry(archive.toString(), "missing.txt", target.toString()));
+    }
+
+    @Test
+    void testEntryLookupAmongManyFiles() throws IOException {
+        Path dir = Files.createTempDirectory("containerMany");
+        for (int i = 0; i < 300; i++) {
+            Path file = dir.resolve("d" + i % 7 + "/f" + i + ".txt");
+            Files.createDirectories(file.getParent());
+            Files.write(file, ("file " + i).repeat(i % 5 + 1).getBytes());
+        }
+        Path archive = Files.createTempFile("containerMany", ".arc");
+        FileArchiver.compressDirectory(dir.toString(), archive.toString(), null);
+        Path target = Files.createTempFile("containerMany", ".dat");
+        // Каждый путь находится по хеш-таблице, в том числе при коллизиях слотов
+        for (int i = 0; i < 300; i++) {
+            String path = "d" + i % 7 + "/f" + i + ".txt";
+            FileArchiver.extractEntry(archive.toString(), path, target.toString());
+            assertArrayEquals(Files.readAllBytes(dir.resolve(path)), Files.readAllBytes(target), path);
+        }
+        assertThrows(FileNotFoundException.class,
+                () -> FileArchiver.extractEntry(archive.toString(), "d0/f300.txt", target.toString()));
+    }
+
+    @Test
+    void testAppendUpdateAndCompact() throws IOException {
+        Path dir = createTree();
+        Path archive = Files.createTempFile("containerUpdate", ".arc");
+        FileArchiver.compressDirectory(dir.toString(), archive.toString(), null);
+        assertEquals(0, FileArchiver.updateArchive(dir.toString(), archive.toString(), null));
+        // Новое время изменения при том же содержимом: данные не дописываются, но каталог
+        // запоминает время, и следующее обновление уже не читает файл
+        long size = Files.size(archive);
+        Files.setLastModifiedTime(dir.resolve("docs/b.bin"), FileTime.fromMillis(System.currentTimeMillis() + 60_000));
+        assertEquals(0, FileArchiver.updateArchive(dir.toString(), archive.toString(), null));
+        assertTrue(Files.size(archive) > size);
+        size = Files.size(archive);
+        assertEquals(0, FileArchiver.updateArchive(dir.toString(), archive.toString(), null));
+        assertEquals(size, Files.size(archive));
+
+        byte[] head = Files.readAllBytes(archive);
+        Files.write(dir.resolve("a.txt"), "changed contents".repeat(30).getBytes());
+        Files.write(dir.resolve("docs/new.txt"), "brand new file".getBytes());
+        assertEquals(2, FileArchiver.updateArchive(dir.toString(), archive.toString(), FileArchiver.Method.LZW));
+        // Прежние байты архива не переписываются
+        assertArrayEquals(head, Arrays.copyOf(Files.readAllBytes(archive), head.length));
+        assertEquals(List.of("a.txt", "docs/b.bin", "docs/nested/c.dat", "empty.txt", "docs/new.txt"),
+                FileArchiver.listArchive(archive.toString()));
+
+        Path restored = Files.createTempDirectory("containerUpdateRestored");
+        FileArchiver.extractArchive(archive.toString(), restored.toString());
+        assertSameTree(dir, restored);
+        assertArrayEquals(Files.readAllBytes(dir.resolve("docs/new.txt")), Files.readAllBytes(restored.resolve("docs/new.txt")));
+        // Таблица путей переписывается вместе с каталогом: находятся и новые, и замененные записи
+        Path entry = Files.createTempFile("containerUpdateEntry", ".dat");
+        FileArchiver.extractEntry(archive.toString(), "a.txt", entry.toString());
+        assertArrayEquals(Files.readAllBytes(dir.resolve("a.txt")), Files.readAllBytes(entry));
+
+        long reclaimed = FileArchiver.compactArchive(archive.toString());
+        assertTrue(reclaimed > 0);
+        Path compacted = Files.createTempDirectory("containerCompacted");
+        FileArchiver.extractArchive(archive.toString(), compacted.toString());
+        assertSameTree(dir, compacted);
+        assertEquals(0, FileArchiver.compactArchive(archive.toString()));
+    }
+}
@@ -0,0 +1,82 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DedupArchiveTest {
+
+    private static List<String> chunks(byte[] data) throws IOException {
+        Chunker chunker = new Chunker(new ByteArrayInputStream(data));
+        List<String> chunks = new ArrayList<>();
+        for (int n; (n = chunker.next()) > 0; ) {
+            assertTrue(n <= Chunker.MAX_SIZE);
+            chunks.add(Arrays.toString(Arrays.copyOfRange(chunker.buffer(), chunker.chunkStart(), chunker.chunkStart() + n)));
+        }
+        return chunks;
+    }
+
+    @Test
+    void testChunkBoundariesResynchronize() throws IOException {
+        byte[] data = new byte[1 << 20];
+        new Random(11).nextBytes(data);
+        byte[] shifted = new byte[data.length + 100];
+        System.arraycopy(data, 0, shifted, 100, data.length);
+        List<String> original = chunks(data);
+        assertEquals(data.length, original.stream().mapToInt(c -> c.split(",").length).sum());
+        // Вставка в начало меняет только первые фрагменты
+        Set<String> common = new HashSet<>(chunks(shifted));
+        common.retainAll(original);
+        assertTrue(common.size() >= original.size() - 2, common.size() + " of " + original.size());
+    }
+
+    @Test
+    void testDeduplicatedRoundTrip() throws IOException {
+        Path dir = ContainerTest.createTree();
+        byte[] image = new byte[1 << 20];
+        new Random(5).nextBytes(image);
+        Files.write(dir.resolve("image1.bin"), image);
+        image[500_000] ^= 1;
+        Files.write(dir.resolve("image2.bin"), image);
+
+        Path archive = Files.createTempFile("dedup", ".arc");
+        DedupArchive.Summary summary = DedupArchive.compress(dir, archive, null);
+        assertEquals(6, summary.files());
+        assertTrue(summary.uniqueBytes() < summary.originalBytes() - 900_000, summary.toString());
+        // Второй образ почти весь состоит из уже сохраненных фрагментов
+        assertTrue(Files.size(archive) < 1_300_000, "archive size " + Files.size(archive));
+
+        assertEquals(List.of("a.txt", "docs/b.bin", "docs/nested/c.dat", "empty.txt", "image1.bin", "image2.bin"),
+                FileArchiver.listArchive(archive.toString()));
+
+        Path restored = Files.createTempDirectory("dedupRestored");
+        FileArchiver.decompressFileAuto(archive.toString(), restored.toString());
+        ContainerTest.assertSameTree(dir, restored);
+        assertArrayEquals(Files.readAllBytes(dir.resolve("image2.bin")), Files.readAllBytes(restored.resolve("image2.bin")));
+    }
+
+    @Test
+    void testCorruptedSegmentDetected() throws IOException {
+        Path dir = ContainerTest.createTree();
+        Path archive = Files.createTempFile("dedupCorrupt", ".arc");
+        FileArchiver.compressDeduplicated(dir.toString(), archive.toString(), FileArchiver.Method.RLE);
+        try (RandomAccessFile raf = new RandomAccessFile(archive.toFile(), "rw")) {
+            raf.seek(1);
+            raf.write('X');
+        }
+        Path restored = Files.createTempDirectory("dedupCorruptRestored");
+        assertThrows(IOException.class, () -> FileArchiver.extractArchive(archive.toString(), restored.toString()));
+        // Файл с поврежденными данными не остается среди восстановленных
+        assertFalse(Files.exists(restored.resolve("a.txt")));
+    }
+}
@@ -3,7 +3,11 @@ package org.example;
 import org.example.compression.*;
 import org.junit.jupiter.api.Test;
 import java.io.*;
+import java.util.Arrays;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class FileArchiverTest {
@@ -112,4 +116,266 @@ public class FileArchiverTest {
         byte[] restored = new FileInputStream(tempRestored).readAllBytes();
         assertArrayEquals(data, restored);
     }
+
+    @Test
+    void testLargeFileAllMethods() throws IOException {
+        byte[] data = new byte[5 << 20];
+        Random random = new Random(7);
+        for (int i = 0; i < data.length; i += 4096) {
+            int value = random.nextInt(4) == 0 ? random.nextInt(256) : 'x';
+            for (int j = i; j < Math.min(data.length, i + 4096); j++) {
+                data[j] = (byte) (value == 'x' ? "log line 0123456789\n".charAt(j % 20) : value);
+            }
+        }
+        File tempIn = File.createTempFile("testLarge", ".bin");
+        try (FileOutputStream fos = new FileOutputStream(tempIn)) {
+            fos.write(data);
+        }
+        for (FileArchiver.Method method : FileArchiver.Method.values()) {
+            File tempOut = File.createTempFile("testLarge", ".arc");
+            File tempRestored = File.createTempFile("testLarge", ".restored.bin");
+            FileArchiver.compressFile(tempIn.getAbsolutePath(), tempOut.getAbsolutePath(), method);
+            FileArchiver.decompressFileAuto(tempOut.getAbsolutePath(), tempRestored.getAbsolutePath());
+            byte[] restored = new FileInputStream(tempRestored).readAllBytes();
+            assertArrayEquals(data, restored, method.name());
+        }
+    }
+
+    @Test
+    void testEmptyFile() throws IOException {
+        File tempIn = File.createTempFile("testEmpty", ".txt");
+        for (FileArchiver.Method method : FileArchiver.Method.values()) {
+            File tempOut = File.createTempFile("testEmpty", ".arc");
+            File tempRestored = File.createTempFile("testEmpty", ".restored.txt");
+            FileArchiver.compressFile(tempIn.getAbsolutePath(), tempOut.getAbsolutePath(), method);
+            FileArchiver.decompressFileAuto(tempOut.getAbsolutePath(), tempRestored.getAbsolutePath());
+            assertEquals(0, tempRestored.length(), method.name());
+        }
+    }
+
+    @Test
+    void testBlockArchiveSmallBlocks() throws IOException {
+        byte[] data = new byte[1 << 20];
+        Random random = new Random(11);
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (random.nextInt(8) == 0 ? random.nextInt(256) : 'a' + i % 7);
+        File tempIn = File.createTempFile("testBlocks", ".bin");
+        try (FileOutputStream fos = new FileOutputStream(tempIn)) {
+            fos.write(data);
+        }
+        for (FileArchiver.Method method : FileArchiver.Method.values()) {
+            File tempOut = File.createTempFile("testBlocks", ".arc");
+            File tempRestored = File.createTempFile("testBlocks", ".restored.bin");
+            FileArchiver.compressFile(tempIn.getAbsolutePath(), tempOut.getAbsolutePath(), method, 1 << 16);
+            try (FileInputStream archive = new FileInputStream(tempOut)) {
+                assertEquals(BlockArchive.MAGIC, archive.read());
+            }
+            FileArchiver.decompressFile(tempOut.getAbsolutePath(), tempRestored.getAbsolutePath(), method);
+            byte[] restored = new FileInputStream(tempRestored).readAllBytes();
+            assertArrayEquals(data, restored, method.name());
+        }
+    }
+
+    @Test
+    void testFailedCompressionRemovesArchive() throws IOException {
+        File tempIn = File.createTempFile("testFailedCompress", ".txt");
+        File tempOut = File.createTempFile("testFailedCompress", ".arc");
+        try (FileOutputStream fos = new FileOutputStream(tempIn)) {
+            fos.write(new byte[300_000]);
+        }
+        // Пул, который не принимает задачи: сжатие обрывается после записи заголовка
+        ExecutorService stopped = Executors.newSingleThreadExecutor();
+        stopped.shutdown();
+        assertThrows(RejectedExecutionException.class, () -> BlockArchive.compress(tempIn.toPath(), tempOut.toPath(),
+                FileArchiver.Method.RLE, 1 << 16, stopped, 1));
+        assertFalse(tempOut.exists());
+    }
+
+    @Test
+    void testBlockSizeValidation() throws IOException {
+        File tempIn = File.createTempFile("testBlockSize", ".txt");
+        File tempOut = File.createTempFile("testBlockSize", ".arc");
+        assertThrows(IllegalArgumentException.class, () ->
+                FileArchiver.compressFile(tempIn.getAbsolutePath(), tempOut.getAbsolutePath(), FileArchiver.Method.RLE, 1024));
+    }
+
+    @Test
+    void testFirstVersionArchives() throws IOException {
+        // Архивы, записанные первой версией программы: байт-метка и весь файл одним массивом
+        byte[] data = "abracadabra, abracadabra! legacy archive of the first version".getBytes();
+        byte[] lzw = {1, 0, 97, 0, 98, 0, 114, 0, 97, 0, 99, 0, 97, 0, 100, 1, 0, 1, 2, 0, 44, 0, 32, 1, 7, 1, 3,
+                1, 5, 1, 11, 0, 33, 0, 32, 0, 108, 0, 101, 0, 103, 1, 3, 0, 121, 1, 10, 0, 114, 0, 99, 0, 104, 0, 105,
+                0, 118, 0, 101, 0, 32, 0, 111, 0, 102, 0, 32, 0, 116, 0, 104, 1, 28, 0, 102, 0, 105, 0, 114, 0, 115,
+                0, 116, 0, 32, 1, 27, 1, 38, 0, 105, 0, 111, 0, 110};
+        byte[] huffman = {2, 0, 0, 0, 59, 0, 0, 1, 97, 0, 1, 114, 0, 1, 105, 0, 1, 100, 1, 111, 0, 0, 0, 0, 0, 1,
+                121, 1, 44, 0, 1, 33, 1, 103, 0, 1, 116, 1, 104, 0, 0, 1, 115, 0, 1, 108, 1, 110, 1, 99, 0, 0, 1, 98,
+                0, 1, 118, 1, 102, 0, 1, 101, 1, 32, 0, 0, 0, 30, 49, 22, 56, -60, 67, -26, 34, -57, 24, -120, -66,
+                -82, -116, -72, 60, 87, 54, -41, 123, -9, -14, -97, 126, -39, 82, 95, -82, 84, 103, -42, 0, 0, 0, 61};
+        for (byte[] archive : new byte[][]{lzw, huffman}) {
+            File tempOut = File.createTempFile("testFirstVersion", ".arc");
+            File tempRestored = File.createTempFile("testFirstVersion", ".restored.txt");
+            try (FileOutputStream fos = new FileOutputStream(tempOut)) {
+                fos.write(archive);
+            }
+            FileArchiver.decompressFileAuto(tempOut.getAbsolutePath(), tempRestored.getAbsolutePath());
+            assertArrayEquals(data, new FileInputStream(tempRestored).readAllBytes());
+            assertEquals(data.length, FileArchiver.verifyArchive(tempOut.getAbsolutePath()));
+            // Поврежденный архив не разбирается ни в одном формате, и недописанный файл удаляется
+            try (RandomAccessFile raf = new RandomAccessFile(tempOut, "rw")) {
+                raf.setLength(raf.length() - 3);
+            }
+            assertThrows(IOException.class, () ->
+                    FileArchiver.decompressFileAuto(tempOut.getAbsolutePath(), tempRestored.getAbsolutePath()));
+            assertFalse(tempRestored.exists());
+        }
+        // RLE с тех пор не менялся: метка 0 и результат compress(byte[])
+        File rle = File.createTempFile("testFirstVersion", ".arc");
+        File rleRestored = File.createTempFile("testFirstVersion", ".restored.txt");
+        try (FileOutputStream fos = new FileOutputStream(rle)) {
+            fos.write(0);
+            fos.write(new RLECompressor().compress(data));
+        }
+        FileArchiver.decompressFileAuto(rle.getAbsolutePath(), rleRestored.getAbsolutePath());
+        assertArrayEquals(data, new FileInputStream(rleRestored).readAllBytes());
+        // Архив пустого файла — одна байт-метка
+        File tagOnly = File.createTempFile("testFirstVersion", ".arc");
+        try (FileOutputStream fos = new FileOutputStream(tagOnly)) {
+            fos.write(1);
+        }
+        assertEquals(0, FileArchiver.verifyArchive(tagOnly.getAbsolutePath()));
+    }
+
+    @Test
+    void testTruncatedBlockArchive() throws IOException {
+        File tempIn = File.createTempFile("testTruncated", ".txt");
+        File tempOut = File.createTempFile("testTruncated", ".arc");
+        File tempRestored = File.createTempFile("testTruncated", ".restored.txt");
+        try (FileOutputStream fos = new FileOutputStream(tempIn)) {
+            fos.write("some text to be truncated later on".repeat(100).getBytes());
+        }
+        FileArchiver.compressFile(tempIn.getAbsolutePath(), tempOut.getAbsolutePath(), FileArchiver.Method.HUFFMAN);
+        try (RandomAccessFile raf = new RandomAccessFile(tempOut, "rw")) {
+            raf.setLength(raf.length() - 5);
+        }
+        assertThrows(IOException.class, () ->
+                FileArchiver.decompressFileAuto(tempOut.getAbsolutePath(), tempRestored.getAbsolutePath()));
+        assertFalse(tempRestored.exists());
+    }
+
+    @Test
+    void testAutoSelectSampling() {
+        int size = 16 * FileArchiver.AUTO_SAMPLE_SIZE;
+        byte[] runs = new byte[size];
+        for (int i = 0; i < size; i++) runs[i] = (byte) (i / 100);
+        assertEquals(FileArchiver.Method.RLE, FileArchiver.autoSelectMethod(runs));
+        byte[] phrases = "the quick brown fox jumps over the lazy dog ".repeat(size / 44).getBytes();
+        assertEquals(FileArchiver.Method.LZW, FileArchiver.autoSelectMethod(phrases));
+        byte[] random = new byte[size];
+        new Random(1).nextBytes(random);
+        assertEquals(FileArchiver.Method.HUFFMAN, FileArchiver.autoSelectMethod(random));
+    }
+
+    @Test
+    void testTrialSelection() throws IOException {
+        byte[] runs = new byte[1 << 20];
+        for (int i = 0; i < runs.length; i++) runs[i] = (byte) (i / 1000);
+        assertEquals(FileArchiver.Method.RLE, FileArchiver.trialSelectMethod(runs, FileArchiver.Objective.SMALLEST));
+        byte[] random = new byte[1 << 18];
+        new Random(2).nextBytes(random);
+        // Случайные данные не уменьшает никто: быстрое восстановление сводится к наименьшему размеру
+        assertEquals(FileArchiver.trialSelectMethod(random, FileArchiver.Objective.SMALLEST),
+                FileArchiver.trialSelectMethod(random, FileArchiver.Objective.FASTEST_DECODE));
+        File tempIn = File.createTempFile("testTrial", ".bin");
+        File tempOut = File.createTempFile("testTrial", ".arc");
+        File tempRestored = File.createTempFile("testTrial", ".restored.bin");
+        try (FileOutputStream fos = new FileOutputStream(tempIn)) {
+            fos.write(runs);
+        }
+        FileArchiver.compressFileTrial(tempIn.getAbsolutePath(), tempOut.getAbsolutePath(),
+                FileArchiver.Objective.RATIO_PER_CPU, FileArchiver.DEFAULT_BLOCK_SIZE);
+        FileArchiver.decompressFileAuto(tempOut.getAbsolutePath(), tempRestored.getAbsolutePath());
+        assertArrayEquals(runs, new FileInputStream(tempRestored).readAllBytes());
+    }
+
+    @Test
+    void testPerBlockMethods() throws IOException {
+        // Половина файла — заполнение нулями, половина — текст
+        int blockSize = BlockArchive.MIN_BLOCK_SIZE;
+        ByteArrayOutputStream data = new ByteArrayOutputStream();
+        data.write(new byte[4 * blockSize]);
+        byte[] text = "per-block method selection keeps every region small ".repeat(4 * blockSize / 52 + 1).getBytes();
+        data.write(text, 0, 4 * blockSize);
+        byte[] bytes = data.toByteArray();
+        File tempIn = File.createTempFile("testPerBlock", ".bin");
+        File tempOut = File.createTempFile("testPerBlock", ".arc");
+        File tempRestored = File.createTempFile("testPerBlock", ".restored.bin");
+        try (FileOutputStream fos = new FileOutputStream(tempIn)) {
+            fos.write(bytes);
+        }
+        FileArchiver.compressFilePerBlock(tempIn.getAbsolutePath(), tempOut.getAbsolutePath(), blockSize);
+        try (java.nio.channels.FileChannel ch = java.nio.channels.FileChannel.open(tempOut.toPath())) {
+            BlockArchive.BlockInfo[] index = BlockArchive.readIndex(ch);
+            assertEquals(FileArchiver.Method.RLE, index[0].method());
+            assertEquals(FileArchiver.Method.LZW, index[index.length - 1].method());
+        }
+        FileArchiver.decompressFileAuto(tempOut.getAbsolutePath(), tempRestored.getAbsolutePath());
+        assertArrayEquals(bytes, new FileInputStream(tempRestored).readAllBytes());
+    }
+
+    @Test
+    void testBlockChecksumsDetectCorruption() throws IOException {
+        byte[] bytes = new byte[3 * BlockArchive.MIN_BLOCK_SIZE];
+        new Random(8).nextBytes(bytes);
+        for (int i = 0; i < bytes.length; i++) bytes[i] &= 0x1F;
+        File tempIn = File.createTempFile("testChecksum", ".bin");
+        File tempOut = File.createTempFile("testChecksum", ".arc");
+        File tempRestored = File.createTempFile("testChecksum", ".restored.bin");
+        try (FileOutputStream fos = new FileOutputStream(tempIn)) {
+            fos.write(bytes);
+        }
+        FileArchiver.compressFile(tempIn.getAbsolutePath(), tempOut.getAbsolutePath(), FileArchiver.Method.HUFFMAN,
+                BlockArchive.MIN_BLOCK_SIZE);
+        assertEquals(bytes.length, FileArchiver.verifyArchive(tempOut.getAbsolutePath()));
+        try (RandomAccessFile raf = new RandomAccessFile(tempOut, "rw")) {
+            // Данные второго блока: после заголовка и первого блока
+            raf.seek(raf.length() / 2);
+            int b = raf.read();
+            raf.seek(raf.length() / 2);
+            raf.write(b ^ 0x10);
+        }
+        assertThrows(IOException.class, () -> FileArchiver.verifyArchive(tempOut.getAbsolutePath()));
+        assertThrows(IOException.class,
+                () -> FileArchiver.decompressFileAuto(tempOut.getAbsolutePath(), tempRestored.getAbsolutePath()));
+    }
+
+    @Test
+    void testCorruptedBlockHeaderRejected() throws IOException {
+        byte[] bytes = new byte[2 * BlockArchive.MIN_BLOCK_SIZE];
+        Arrays.fill(bytes, (byte) 'z');
+        File tempIn = File.createTempFile("testHeader", ".bin");
+        File tempOut = File.createTempFile("testHeader", ".arc");
+        try (FileOutputStream fos = new FileOutputStream(tempIn)) {
+            fos.write(bytes);
+        }
+        FileArchiver.compressFile(tempIn.getAbsolutePath(), tempOut.getAbsolutePath(), FileArchiver.Method.HUFFMAN,
+                BlockArchive.MIN_BLOCK_SIZE);
+        try (RandomAccessFile raf = new RandomAccessFile(tempOut, "rw")) {
+            // Старший байт длины в заголовке Хаффмена первого блока (сразу за заголовком архива):
+            // блок из одного символа обещал бы почти 2 ГБ данных
+            raf.seek(6);
+            raf.write(0x7F);
+        }
+        IOException e = assertThrows(IOException.class, () -> FileArchiver.verifyArchive(tempOut.getAbsolutePath()));
+        assertTrue(e.getMessage().startsWith("Corrupted block"), e.getMessage());
+    }
+
+    @Test
+    void testCompressorContextsPerThread() throws Exception {
+        Compressor mine = FileArchiver.getCompressor(FileArchiver.Method.LZW);
+        assertSame(mine, FileArchiver.getCompressor(FileArchiver.Method.LZW));
+        Compressor[] other = new Compressor[1];
+        Thread thread = new Thread(() -> other[0] = FileArchiver.getCompressor(FileArchiver.Method.LZW));
+        thread.start();
+        thread.join();
+        assertNotSame(mine, other[0]);
+    }
 }
@@ -0,0 +1,30 @@
+package org.example;
+
+import org.junit.jupiter.api.Test;
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedFilesTest {
+    @Test
+    void testChannelWriteAndMappedRead() throws IOException {
+        byte[] data = new byte[300_000];
+        new Random(3).nextBytes(data);
+        File temp = File.createTempFile("testMapped", ".bin");
+        try (OutputStream out = MappedFiles.newOutputStream(temp.toPath())) {
+            out.write(data, 0, 10);
+            out.write(data[10]);
+            out.write(data, 11, 200_000);
+            out.write(data, 200_011, data.length - 200_011);
+        }
+        assertEquals(data.length, temp.length());
+        try (InputStream in = MappedFiles.newInputStream(temp.toPath())) {
+            assertEquals(data[0] & 0xFF, in.read());
+            assertEquals(9, in.skip(9));
+            byte[] rest = in.readAllBytes();
+            assertArrayEquals(Arrays.copyOfRange(data, 10, data.length), rest);
+            assertEquals(-1, in.read());
+        }
+    }
+}
@@ -1,6 +1,12 @@
 package org.example.compression;
 
 import org.junit.jupiter.api.Test;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
 import static org.junit.jupiter.api.Assertions.*;
 
 public class CompressionTest {
@@ -30,5 +36,317 @@ public class CompressionTest {
         byte[] decompressed = c.decompress(compressed);
         assertArrayEquals(data, decompressed);
     }
-}
 
+    @Test
+    void testRLEFlagBytes() {
+        Compressor c = new RLECompressor();
+        byte[] data = {(byte) 0xFF, 'a', 'b', (byte) 0xFF, (byte) 0xFF, 'c', (byte) 0xFF};
+        assertArrayEquals(data, c.decompress(c.compress(data)));
+    }
+
+    @Test
+    void testStreaming() throws IOException {
+        byte[] data = mixedData(3 << 20);
+        for (Compressor c : new Compressor[]{new RLECompressor(), new LZWCompressor(), new HuffmanCompressor()}) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            c.compress(new ByteArrayInputStream(data), compressed);
+            ByteArrayOutputStream restored = new ByteArrayOutputStream();
+            c.decompress(new ByteArrayInputStream(compressed.toByteArray()), restored);
+            assertArrayEquals(data, restored.toByteArray(), c.getClass().getSimpleName());
+        }
+    }
+
+    @Test
+    void testRLEStreamingMatchesArray() throws IOException {
+        Compressor c = new RLECompressor();
+        byte[] data = mixedData(100_000);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        c.compress(new ByteArrayInputStream(data), compressed);
+        assertArrayEquals(c.compress(data), compressed.toByteArray());
+    }
+
+    @Test
+    void testRLELongRuns() throws IOException {
+        Compressor c = new RLECompressor();
+        byte[] data = new byte[300_000];
+        Arrays.fill(data, 70_000, 200_000, (byte) 0xFF);
+        Arrays.fill(data, 200_000, 200_003, (byte) 7);
+        for (int i = 250_000; i < data.length; i++) data[i] = (byte) (i % 3 == 0 ? 0xFF : i);
+        byte[] compressed = c.compress(data);
+        assertArrayEquals(data, c.decompress(compressed));
+        ByteArrayOutputStream streamed = new ByteArrayOutputStream();
+        c.compress(new ByteArrayInputStream(data), streamed);
+        assertArrayEquals(compressed, streamed.toByteArray());
+    }
+
+    @Test
+    void testHuffmanSkewedAndSingleSymbol() {
+        Compressor c = new HuffmanCompressor();
+        // Частоты Фибоначчи дают самое глубокое дерево: коды упираются в ограничение длины
+        // и после исправления неравенства Крафта редкие символы получают коды предельной длины
+        byte[] data = new byte[150_000];
+        int pos = 0;
+        int a = 1, b = 1;
+        for (int symbol = 0; pos < data.length; symbol++) {
+            for (int j = 0; j < a && pos < data.length; j++) data[pos++] = (byte) symbol;
+            int next = a + b;
+            a = b;
+            b = next;
+        }
+        assertArrayEquals(data, c.decompress(c.compress(data)));
+        byte[] single = new byte[1000];
+        Arrays.fill(single, (byte) 'z');
+        assertArrayEquals(single, c.decompress(c.compress(single)));
+    }
+
+    @Test
+    void testHuffmanLargeSingleSymbol() {
+        // Свой результат кодек восстанавливает при любой длине, даже без ожидаемой
+        Compressor c = new HuffmanCompressor();
+        byte[] data = new byte[100 << 20];
+        byte[] compressed = c.compress(data);
+        assertEquals(6, compressed.length);
+        assertArrayEquals(data, c.decompress(compressed));
+    }
+
+    @Test
+    void testHuffmanCompactHeader() {
+        Compressor c = new HuffmanCompressor();
+        byte[] data = "abcd".repeat(250).getBytes();
+        byte[] compressed = c.compress(data);
+        // 4 байта длины, 3 байта диапазона символов, 2 байта длин по 4 бита и по 2 бита на символ
+        assertEquals(4 + 3 + 2 + 250, compressed.length);
+        assertArrayEquals(data, c.decompress(compressed));
+    }
+
+    @Test
+    void testHuffmanCodeLengthLimit() {
+        // Частоты Фибоначчи дают без ограничения коды длиной до 29 бит
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int a = 1, b = 1;
+        for (int symbol = 0; symbol < 30; symbol++) {
+            for (int i = 0; i < a; i++) out.write(symbol);
+            int next = a + b;
+            a = b;
+            b = next;
+        }
+        byte[] data = out.toByteArray();
+        for (int limit = HuffmanCompressor.MIN_CODE_LENGTH_LIMIT; limit <= HuffmanCompressor.MAX_CODE_LENGTH_LIMIT; limit++) {
+            Compressor c = new HuffmanCompressor(limit);
+            assertArrayEquals(data, c.decompress(c.compress(data)));
+        }
+        assertThrows(IllegalArgumentException.class, () -> new HuffmanCompressor(10));
+        assertThrows(IllegalArgumentException.class, () -> new HuffmanCompressor(16));
+    }
+
+    @Test
+    void testHuffmanFourStreams() {
+        Compressor c = new HuffmanCompressor();
+        byte[] text = mixedData(HuffmanCompressor.FOUR_STREAMS_MIN_LENGTH + 8);
+        // Длины вокруг порога и с разными остатками от деления на четыре
+        for (int length = HuffmanCompressor.FOUR_STREAMS_MIN_LENGTH - 1; length < text.length; length++) {
+            byte[] data = Arrays.copyOf(text, length);
+            byte[] compressed = c.compress(data);
+            assertEquals(length >= HuffmanCompressor.FOUR_STREAMS_MIN_LENGTH ? 4 : 1, compressed[4]);
+            assertArrayEquals(data, c.decompress(compressed));
+        }
+    }
+
+    @Test
+    void testHuffmanNearUniformFitsBound() {
+        // Почти равномерные данные: код около 8 бит на символ, и выравнивание
+        // каждого из четырех потоков не должно выходить за maxCompressedLength
+        Compressor c = new HuffmanCompressor();
+        Random random = new Random(15);
+        for (int i = 0; i < 200; i++) {
+            int length = HuffmanCompressor.FOUR_STREAMS_MIN_LENGTH + random.nextInt(56 << 10);
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            byte[] dst = new byte[c.maxCompressedLength(length)];
+            int n = c.compress(data, 0, length, dst, 0);
+            assertArrayEquals(data, c.decompress(dst, 0, n), "length " + length);
+        }
+    }
+
+    @Test
+    void testHuffmanTruncatedPayloadRejected() {
+        Compressor c = new HuffmanCompressor();
+        byte[] data = mixedData(20_000);
+        byte[] compressed = c.compress(data);
+        // Оборванный поток битов — ошибка, а не укороченный результат
+        for (int cut : new int[]{1, 100}) {
+            int len = compressed.length - cut;
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                    () -> c.decompress(compressed, 0, len, data.length));
+            assertTrue(e.getMessage().startsWith("Expected 20000 bytes"), e.getMessage());
+            assertThrows(IllegalArgumentException.class, () -> c.decompress(compressed, 0, len));
+        }
+    }
+
+    @Test
+    void testHuffmanBadHeaderRejected() {
+        Compressor c = new HuffmanCompressor();
+        // Режим одного символа с длиной 1 ГБ при другой ожидаемой длине не должен выделять память
+        byte[] huge = {0x40, 0, 0, 0, 0, 'z'};
+        assertThrows(IllegalArgumentException.class, () -> c.decompress(huge, 0, huge.length, 10));
+        // Вход короче заголовка
+        for (byte[] truncated : new byte[][]{{}, {0, 0}, {0, 0, 0, 5}, {0, 0, 0, 5, 1}, {0, 0, 0, 5, 1, 'a'},
+                {0, 0, 0, 5, 1, 'a', 'z'}}) {
+            assertThrows(IllegalArgumentException.class, () -> c.decompress(truncated), Arrays.toString(truncated));
+        }
+    }
+
+    @Test
+    void testCorruptedFrameLengthRejected() throws IOException {
+        byte[] data = mixedData(50_000);
+        for (Compressor c : new Compressor[]{new LZWCompressor(), new HuffmanCompressor()}) {
+            ByteArrayOutputStream packed = new ByteArrayOutputStream();
+            c.compress(new ByteArrayInputStream(data), packed);
+            byte[] corrupted = packed.toByteArray();
+            // Длина исходного блока больше размера блока потока: ошибка до выделения памяти
+            BlockStreams.writeInt(corrupted, 0, 0x7FFFFFF0);
+            assertThrows(IOException.class,
+                    () -> c.decompress(new ByteArrayInputStream(corrupted), new ByteArrayOutputStream()),
+                    c.getClass().getSimpleName());
+        }
+        // LZW не верит длине, которую 16 байт кодов дать не могут
+        Compressor lzw = new LZWCompressor();
+        byte[] compressed = lzw.compress(data);
+        assertThrows(IllegalArgumentException.class, () -> lzw.decompress(compressed, 0, 16, 1 << 30));
+    }
+
+    @Test
+    void testContextReuse() throws IOException {
+        byte[] large = mixedData(300_000);
+        byte[] small = "tiny".getBytes();
+        for (Compressor c : new Compressor[]{new RLECompressor(), new LZWCompressor(), new HuffmanCompressor()}) {
+            // Буферы после большого входа не должны влиять на следующие сжатия
+            for (byte[] data : new byte[][]{large, small, large, new byte[0], small}) {
+                assertArrayEquals(data, c.decompress(c.compress(data)));
+                ByteArrayOutputStream packed = new ByteArrayOutputStream();
+                c.compress(new ByteArrayInputStream(data), packed);
+                ByteArrayOutputStream restored = new ByteArrayOutputStream();
+                c.decompress(new ByteArrayInputStream(packed.toByteArray()), restored);
+                assertArrayEquals(data, restored.toByteArray());
+            }
+            c.reset();
+            assertArrayEquals(small, c.decompress(c.compress(small)));
+        }
+    }
+
+    @Test
+    void testOffsetOverloads() {
+        byte[] data = mixedData(50_000);
+        for (Compressor c : new Compressor[]{new RLECompressor(), new LZWCompressor(), new HuffmanCompressor()}) {
+            byte[] dst = new byte[3 + c.maxCompressedLength(data.length - 10)];
+            int n = c.compress(data, 10, data.length - 10, dst, 3);
+            assertTrue(n <= dst.length - 3);
+            byte[] restored = c.decompress(dst, 3, n);
+            assertArrayEquals(Arrays.copyOfRange(data, 10, data.length), restored, c.getClass().getSimpleName());
+        }
+    }
+
+    @Test
+    void testByteBufferOverloads() {
+        byte[] data = mixedData(50_000);
+        for (Compressor c : new Compressor[]{new RLECompressor(), new LZWCompressor(), new HuffmanCompressor()}) {
+            for (boolean direct : new boolean[]{false, true}) {
+                ByteBuffer src = direct ? ByteBuffer.allocateDirect(data.length) : ByteBuffer.allocate(data.length);
+                src.put(data).flip();
+                int bound = c.maxCompressedLength(data.length);
+                ByteBuffer dst = direct ? ByteBuffer.allocateDirect(bound) : ByteBuffer.allocate(bound);
+                int n = c.compress(src, dst);
+                assertEquals(n, dst.position());
+                assertFalse(src.hasRemaining());
+                dst.flip();
+                assertArrayEquals(data, c.decompress(dst), c.getClass().getSimpleName());
+            }
+        }
+    }
+
+    @Test
+    void testMaxCompressedLengthWorstCase() {
+        byte[] flags = new byte[1001];
+        for (int i = 0; i < flags.length; i += 2) flags[i] = (byte) 0xFF;
+        byte[] random = new byte[10_000];
+        new Random(1).nextBytes(random);
+        for (Compressor c : new Compressor[]{new RLECompressor(), new LZWCompressor(), new HuffmanCompressor()}) {
+            for (byte[] data : new byte[][]{flags, random, new byte[0], {(byte) 0xFF}}) {
+                assertTrue(c.compress(data).length <= c.maxCompressedLength(data.length));
+                assertArrayEquals(data, c.decompress(c.compress(data)));
+            }
+        }
+    }
+
+    @Test
+    void testMaxCompressedLengthOverflow() {
+        for (Compressor c : new Compressor[]{new RLECompressor(), new LZWCompressor(), new HuffmanCompressor()}) {
+            // Граница для входа около 1 ГБ и больше не помещается в int: ошибка, а не отрицательный размер
+            assertThrows(IllegalArgumentException.class, () -> c.maxCompressedLength(Integer.MAX_VALUE),
+                    c.getClass().getSimpleName());
+            assertTrue(c.maxCompressedLength(1 << 29) > 0);
+        }
+        assertThrows(IllegalArgumentException.class, () -> new RLECompressor().maxCompressedLength(1 << 30));
+        assertThrows(IllegalArgumentException.class, () -> new LZWCompressor().maxCompressedLength(1 << 30));
+    }
+
+    @Test
+    void testLZWFullDictionary() {
+        Compressor c = new LZWCompressor();
+        byte[] data = new byte[300_000];
+        new Random(5).nextBytes(data);
+        assertArrayEquals(data, c.decompress(c.compress(data)));
+    }
+
+    @Test
+    void testLZWDictionaryReset() {
+        Compressor c = new LZWCompressor();
+        // Фразы заполняют словарь, затем статистика меняется: текст из заглавных букв,
+        // пар которых в замороженном словаре нет
+        byte[] phrases = mixedData(1 << 20);
+        byte[] upper = upperCaseText(1 << 20);
+        byte[] data = Arrays.copyOf(phrases, phrases.length + upper.length);
+        System.arraycopy(upper, 0, data, phrases.length, upper.length);
+        byte[] compressed = c.compress(data);
+        assertTrue(compressed.length <= c.maxCompressedLength(data.length));
+        assertArrayEquals(data, c.decompress(compressed));
+        // Без сброса вторая половина шла бы кодами замороженного словаря по 16 бит почти на каждый байт;
+        // со сбросом она сжимается почти как отдельный вход
+        int separately = c.compress(phrases).length + c.compress(upper).length;
+        assertTrue(compressed.length < separately + upper.length / 10,
+                compressed.length + " vs " + separately + " compressed separately");
+    }
+
+    // Слова из заглавных букв, ни одно из которых не встречается в mixedData
+    private static byte[] upperCaseText(int size) {
+        String[] words = {"ZEBRA ", "QUARTZ ", "JUKEBOX ", "VEXING ", "WALTZ ", "NYMPH ", "GLYPH ", "FJORD "};
+        Random random = new Random(7);
+        StringBuilder sb = new StringBuilder(size + 8);
+        while (sb.length() < size) sb.append(words[random.nextInt(words.length)]);
+        return Arrays.copyOf(sb.toString().getBytes(), size);
+    }
+
+    /**
+     * Данные с длинными сериями, повторяющимися фразами и случайными байтами.
+     */
+    static byte[] mixedData(int size) {
+        Random random = new Random(42);
+        byte[] data = new byte[size];
+        byte[] phrase = "the quick brown fox jumps over the lazy dog ".getBytes();
+        int i = 0;
+        while (i < size) {
+            int len = Math.min(size - i, 1 + random.nextInt(600));
+            switch (random.nextInt(3)) {
+                case 0 -> Arrays.fill(data, i, i + len, (byte) random.nextInt(256));
+                case 1 -> {
+                    for (int j = 0; j < len; j++) data[i + j] = phrase[j % phrase.length];
+                }
+                default -> {
+                    for (int j = 0; j < len; j++) data[i + j] = (byte) random.nextInt(256);
+                }
+            }
+            i += len;
+        }
+        return data;
+    }
+}